@@ -16,14 +16,26 @@
  */
 package com.seanox.pdf;
 
-import java.math.BigInteger;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Generator fills placeholders in a template (model) with the values of
@@ -31,7 +43,7 @@ import java.util.stream.Collectors;
  * identifier of the placeholder (case-insensitive).<br>
  * <br>
  * Filling works at byte level, which uses the values as byte arrays. Other data
- * types are converted via {@code String.valueOf(value).getBytes()}.<br>
+ * types are converted via {@code String.valueOf(value)} and encoded as UTF-8.<br>
  * <br>
  * Placeholders represent values and structures. Structures are nested
  * placeholders with a depth of up to 65535 levels, which use a tree-like
@@ -47,7 +59,9 @@ import java.util.stream.Collectors;
  * {@link Collection} iterates over a set of {@link Map} objects, which is
  * similar to the iterative call of the {@link #set(String, Map)} method.
  * {@link Map} and {@link Collection} create deep, complex, and recursive
- * structures.
+ * structures. Instead of a {@link Collection}, any {@link Iterable}, an
+ * {@link Iterator} or a {@link Stream} can also be used, whose entries are
+ * then consumed lazily during filling.
  *
  * <h3>Description of the syntax</h3>
  * Placeholders support values, structures and static texts. The identifier is
@@ -130,11 +144,13 @@ import java.util.stream.Collectors;
  * </table>
  *
  * <h3>Functionality</h3>
- * The model (byte array) is parsed initially. All placeholders are checked for
- * syntactic correctness. If necessary, invalid placeholders are removed.
+ * The model (byte array) is compiled initially. All placeholders are checked
+ * for syntactic correctness. If necessary, invalid placeholders are removed.
  * Structures (partial templates) are determined and replaced by a simple
- * placeholder. After parsing, a final model with optimized placeholders and
- * extracted structures is created, which cannot be changed at runtime.<br>
+ * placeholder. After compiling, a final model is created as an immutable
+ * sequence of segments (literals, values, structure values and hexadecimal
+ * values) with normalized keys and extracted structures, which cannot be
+ * changed at runtime and is used without any further analysis.<br>
  * <br>
  * For the use of the model different possibilities are then available.<br>
  * <br>
@@ -160,9 +176,6 @@ class Generator {
     /** Pattern fragment of an identifier */
     private final static String TEXT_PATTERN_IDENTIFIER = "([_a-zA-Z$](?:[\\w-$]*[\\w$])?)";
 
-    /** Pattern fragment of an disposable identifier */
-    private final static String TEXT_PATTERN_IDENTIFIER_OPTIONAL_DISPOSABLE = "^" + TEXT_PATTERN_IDENTIFIER + "(:\\d+)?$";
-
     /** Pattern fragment of a structure placeholder */
     private final static String TEXT_PATTERN_PLACEHOLDER_STRUCTURE = "^(?s)#\\[" + TEXT_PATTERN_IDENTIFIER + "\\[\\[.*\\]{3}$";
 
@@ -175,27 +188,68 @@ class Generator {
     /** Pattern fragment of a value placeholder */
     private final static String TEXT_PATTERN_PLACEHOLDER_VALUE = "^#\\[" + TEXT_PATTERN_IDENTIFIER + "\\]$";
 
-    /** Pattern fragment of a disposable value placeholder */
-    private final static String TEXT_PATTERN_PLACEHOLDER_VALUE_DISPOSABLE = "^#\\[" + TEXT_PATTERN_IDENTIFIER + "(:\\d+)\\]$";
-
-    /** Pattern fragment of an optional disposable value placeholder */
-    private final static String TEXT_PATTERN_PLACEHOLDER_VALUE_OPTIONAL_DISPOSABLE = "^#\\[" + TEXT_PATTERN_IDENTIFIER + "(:\\d+)?\\]$";
-
     /** Pattern fragment of a hexadecimal encodes value */
     private final static String TEXT_PATTERN_PLACEHOLDER_VALUE_HEXADECIMAL = "^(?i)#\\[0x([0-9a-f]{2})+\\]$";
 
+    /** Pattern for the validation of an identifier */
+    private final static Pattern PATTERN_IDENTIFIER = Pattern.compile("^" + TEXT_PATTERN_IDENTIFIER + "$");
+
+    /** Pattern of a structure placeholder */
+    private final static Pattern PATTERN_PLACEHOLDER_STRUCTURE = Pattern.compile(TEXT_PATTERN_PLACEHOLDER_STRUCTURE);
+
+    /** Pattern of a disposable structure placeholder */
+    private final static Pattern PATTERN_PLACEHOLDER_STRUCTURE_DISPOSABLE = Pattern.compile(TEXT_PATTERN_PLACEHOLDER_STRUCTURE_DISPOSABLE);
+
+    /** Pattern of a value placeholder */
+    private final static Pattern PATTERN_PLACEHOLDER_VALUE = Pattern.compile(TEXT_PATTERN_PLACEHOLDER_VALUE);
+
+    /** Pattern of a hexadecimal encodes value */
+    private final static Pattern PATTERN_PLACEHOLDER_VALUE_HEXADECIMAL = Pattern.compile(TEXT_PATTERN_PLACEHOLDER_VALUE_HEXADECIMAL);
+
+    /** Key of the value in structures for single values */
+    private final static String KEY_STRUCTURE_VALUE = "#";
+
+    /** Maximum depth of nested placeholders and structures */
+    private final static int STACK_DEPTH = 65535;
+
+    /** Initial size of the scan stack, which grows on demand */
+    private final static int STACK_SIZE = 64;
+
+    /** Scan stack per thread, reused for all scans to avoid allocations */
+    private final static ThreadLocal<int[]> STACK = ThreadLocal.withInitial(() -> new int[STACK_SIZE]);
+
     /** Scopes with structures of the template */
-    private HashMap<String, Structure> scopes;
+    private final HashMap<String, Structure> scopes;
+
+    /** Model, current segments of the filled template */
+    private Segment[] model;
 
-    /** Model, data buffer of the template */
-    private byte[] model;
+    /** Scopes excluded from filling to protect against infinite recursions */
+    private final Exclusion exclusion;
+
+    /**
+     * Minimum size of collections that are expanded in parallel, values less
+     * than 1 disable the parallel expansion
+     */
+    private final int threshold;
 
-    /** Internal incremental counter used for serials */
-    private long serial;
+    /** Memo of the filled structures or {@code null} */
+    private final Memo memo;
 
-    /** Constructor, create an empty generator. */
-    private Generator() {
-        this.scopes = new HashMap<>();
+    /**
+     * Constructor, creates a new generator for the filling of a model.
+     * @param scopes    Scopes with structures
+     * @param model     Segments of the model
+     * @param exclusion Excluded scopes or {@code null}
+     * @param threshold Minimum size of collections for parallel expansion
+     * @param memo      Memo of the filled structures or {@code null}
+     */
+    private Generator(HashMap<String, Structure> scopes, Segment[] model, Exclusion exclusion, int threshold, Memo memo) {
+        this.scopes = scopes;
+        this.model = model;
+        this.exclusion = exclusion;
+        this.threshold = threshold;
+        this.memo = memo;
     }
 
     /**
@@ -204,11 +258,81 @@ class Generator {
      * @return the generator with the template passed as bytes
      */
     static Generator parse(byte[] model) {
-        final var generator = new Generator();
-        generator.model = generator.scan(model);
-        return generator;
+        return Generator.create(Generator.compile(model));
     }
-    
+
+    /**
+     * Creates a new generator based on a compiled model.
+     * The model is shared and not changed by the generator, the generator only
+     * contains the state of the filling.
+     * @param  model Compiled model
+     * @return the generator for the compiled model
+     */
+    static Generator create(Model model) {
+        return Generator.create(model, 0);
+    }
+
+    /**
+     * Creates a new generator based on a compiled model, which expands large
+     * collections in parallel. The entries of collections whose size reaches
+     * the threshold are filled independently via fork/join and then joined
+     * in the original order. Lazy iterables, iterators and streams are always
+     * consumed sequentially.
+     * @param  model     Compiled model
+     * @param  threshold Minimum size of collections for parallel expansion,
+     *                   values less than 1 disable the parallel expansion
+     * @return the generator for the compiled model
+     */
+    static Generator create(Model model, int threshold) {
+        return Generator.create(model, threshold, null);
+    }
+
+    /**
+     * Creates a new generator based on a compiled model, which optionally
+     * expands large collections in parallel and optionally memoizes filled
+     * structures. With a memo, structures that are filled repeatedly with the
+     * same value (identity) are filled only once and then reused. The values
+     * must therefore not change while filling.
+     * @param  model     Compiled model
+     * @param  threshold Minimum size of collections for parallel expansion,
+     *                   values less than 1 disable the parallel expansion
+     * @param  memo      Memo of the filled structures or {@code null}
+     * @return the generator for the compiled model
+     */
+    static Generator create(Model model, int threshold, Memo memo) {
+        return new Generator(model.scopes, model.data, null, threshold, memo);
+    }
+
+    /**
+     * Compiles a template into an immutable and thread-safe model, which can
+     * be used by any number of generators at the same time.
+     * @param  model Template as bytes
+     * @return the compiled model of the template
+     */
+    static Model compile(byte[] model) {
+        return new Model(model);
+    }
+
+    /**
+     * Determines the position of the next placeholder start sequence {@code #[}
+     * from the specified position in a model (structure). The search only
+     * compares bytes and does not analyze the placeholder.
+     * @param  model  Model(Fragment)
+     * @param  cursor Position
+     * @return the position of the next placeholder start sequence, otherwise a
+     *         negative value
+     */
+    private static int locate(byte[] model, int cursor) {
+        if (model == null)
+            return -1;
+        final var limit = model.length -1;
+        for (; cursor < limit; cursor++)
+            if (model[cursor] == '#'
+                    && model[cursor +1] == '[')
+                return cursor;
+        return -1;
+    }
+
     /**
      * Determines whether a valid placeholder starts at the specified position
      * in a model (structure). In this case the length of the complete
@@ -238,7 +362,9 @@ class Generator {
         var offset = cursor;
         var deep   = 0;
 
-        var stack = new int[65535];
+        // The stack is reused per thread and only grows when needed, so
+        // scanning does not cause any allocation in the normal case.
+        var stack = STACK.get();
         while (cursor < model.length) {
 
             // The current mode is determined.
@@ -256,8 +382,13 @@ class Generator {
                     && mode != 1) {
                 if (model[cursor] == '#'
                         && model[cursor +1] == '[') {
-                    if (deep < 65535)
-                        stack[++deep] = 1;
+                    if (deep < STACK_DEPTH) {
+                        if (++deep >= stack.length) {
+                            stack = Arrays.copyOf(stack, Math.min(stack.length *2, STACK_DEPTH +1));
+                            STACK.set(stack);
+                        }
+                        stack[deep] = 1;
+                    }
                     cursor += 2;
                     continue;
                 }
@@ -324,109 +455,6 @@ class Generator {
         return cursor -offset +1;
     }
 
-    /**
-     * Analyzes the model and prepares it for final processing.
-     * All placeholders are checked for syntactic correctness. Invalid
-     * placeholders are removed if necessary. In addition, all structures
-     * (sub-templates) are determined, which then also define the scopes and
-     * are then replaced by a simple placeholder. After parsing, a final model
-     * with optimized placeholders and extracted structures is created, which
-     * cannot be changed at runtime.
-     * @param  model Model
-     * @return the final prepared model
-     */
-    private byte[] scan(byte[] model) {
-        
-        if (model == null)
-            return new byte[0];
-        
-        var cursor = 0;
-        while (true) {
-            var offset = Generator.scan(model, cursor++);
-            if (offset < 0)
-                break;
-            if (offset == 0)
-                continue;
-                
-            cursor--;            
-
-            var patch = new byte[0];
-            var fetch = new String(model, cursor, offset);
-            if (fetch.matches(TEXT_PATTERN_PLACEHOLDER_STRUCTURE)) {
-
-                // scope is determined from: #[scope[[structure]]
-                var scope = fetch.substring(2);
-                scope = scope.substring(0, scope.indexOf('['));
-                scope = scope.toLowerCase();
-
-                // structure is extracted from the model
-                final var cache = new byte[offset -scope.length() -7];
-                System.arraycopy(model, cursor +scope.length() +4, cache, 0, cache.length);
-
-                // scope and structure are registered if scope does not exist
-                if (!this.scopes.containsKey(scope))
-                    this.scopes.put(scope, new Structure(this.scan(cache)));
-
-                // as new placeholder only the scope is used
-                patch = ("#[").concat(scope).concat("]").getBytes();
-
-            } else if (fetch.matches(TEXT_PATTERN_PLACEHOLDER_STRUCTURE_DISPOSABLE)) {
-
-                // scope is determined from: #[scope{{structure}}]
-                var scope = fetch.substring(2);
-                scope = scope.substring(0, scope.indexOf('{'));
-                scope = scope.toLowerCase();
-
-                // structure is extracted from the model
-                final var cache = new byte[offset - scope.length() - 7];
-                System.arraycopy(model, cursor + scope.length() + 4, cache, 0, cache.length);
-
-                // unique scope is registered with the structure
-                scope = String.format("%s:%d", scope, ++this.serial);
-                this.scopes.put(scope, new Structure(this.scan(cache)));
-
-                // as new placeholder only the unique scope is used
-                patch = ("#[").concat(scope).concat("]").getBytes();
-
-            } else if (fetch.matches(TEXT_PATTERN_PLACEHOLDER_VALUE)) {
-
-                patch = fetch.toLowerCase().getBytes();
-
-            } else if (fetch.matches(TEXT_PATTERN_PLACEHOLDER_VALUE_DISPOSABLE)) {
-
-                // The internal syntax #[scope:id] for scanned placeholders of
-                // structures must be escaped, because this must not be used
-                // directly in the template, because the impact and outcome is
-                // not predictable.
-
-                fetch = fetch.substring(2, fetch.indexOf(']'));
-                fetch = new BigInteger(fetch.getBytes()).toString(16);
-                patch = ("#[").concat(fetch).concat("]").getBytes();
-
-            } else if (TEXT_PATTERN_PLACEHOLDER_STRUCTURE_VALUE.equals(fetch)) {
-
-                cursor += fetch.length() +1;
-                continue;
-
-            } else if (fetch.matches(TEXT_PATTERN_PLACEHOLDER_VALUE_HEXADECIMAL)) {
-
-                cursor += fetch.length() +1;
-                continue;
-            }
-            
-            // model is rebuilt with the patch
-            final var cache = new byte[model.length -offset +patch.length];
-            System.arraycopy(model, 0, cache, 0, cursor);
-            System.arraycopy(patch, 0, cache, cursor, patch.length);
-            System.arraycopy(model, cursor +offset, cache, cursor +patch.length, model.length -cursor -offset);
-            model = cache;
-            
-            cursor += patch.length;
-        }
-        
-        return model;
-    }
-
     /**
      * Extracts and fills a specified structure and sets the data there.
      * The data of the template are not affected by this. In difference to
@@ -437,24 +465,53 @@ class Generator {
      * @return the filled structure, if this cannot be determined, an empty byte
      *         array is returned
      */
-    @SuppressWarnings({"unchecked", "rawtypes"})
     private byte[] assemble(String scope, Map<String, Object> values) {
+        final var output = new Output(true);
+        this.assemble(scope, values, output);
+        return output.toByteArray();
+    }
 
-        if (scope == null)
-            return new byte[0];
-        scope = scope.toLowerCase().trim();
-        if (!scope.matches(TEXT_PATTERN_IDENTIFIER_OPTIONAL_DISPOSABLE))
-            return new byte[0];
+    /**
+     * Fills a specified structure and writes the result directly into the
+     * output, without an intermediate copy of the filled structure.
+     * @param scope  Scope
+     * @param values List of values
+     * @param output Output
+     */
+    private void assemble(String scope, Map<String, Object> values, Output output) {
 
-        // Internally, a copy of the generator is created for the structure
-        // (partial model) and thus partially filled.
-        final var generator = new Generator();
-        generator.scopes = (HashMap)this.scopes.clone();
-        generator.scopes.remove(scope);
-        generator.model = this.scopes.get(scope).data;
-        if (generator.model == null)
-            generator.model = new byte[0];
-        return generator.assemble(null, values, true);
+        final var structure = this.lookup(scope);
+        if (structure == null)
+            return;
+
+        // Structures that have already been filled with the same value in
+        // the same context are taken over from the memo. Single values are
+        // always wrapped newly and are therefore not memoized.
+        Memo.Key key = null;
+        if (this.memo != null
+                && values != null
+                && !(values instanceof StructureValue)) {
+            key = new Memo.Key(scope, this.exclusion, values);
+            final var data = this.memo.lookup(key);
+            if (data != null) {
+                output.write(data);
+                return;
+            }
+        }
+
+        // Internally, a generator is created for the structure (partial
+        // model) and thus partially filled. The scopes are shared, to protect
+        // against infinite recursions, the current scope is excluded.
+        final var generator = new Generator(this.scopes, structure.data, new Exclusion(scope, this.exclusion), this.threshold, this.memo);
+        if (key == null) {
+            generator.assemble(generator.normalize(values), true, output);
+            return;
+        }
+        final var patch = new Output(true);
+        generator.assemble(generator.normalize(values), true, patch);
+        final var data = patch.toByteArray();
+        this.memo.store(key, data);
+        output.write(data);
     }
 
     /**
@@ -466,164 +523,239 @@ class Generator {
      * @param  scope  Scope
      * @param  values Values
      * @param  clean  {@code true} for final cleanup
-     * @return the filled model (structure)
+     * @return the output with the filled model (structure)
      */
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    private byte[] assemble(String scope, Map<String, Object> values, boolean clean) {
-        
-        Object object;
+    private Output assemble(String scope, Map<String, Object> values, boolean clean) {
 
-        byte[] cache;
-        byte[] model;
-        byte[] patch;
+        values = this.normalize(values);
 
-        if (this.model == null)
-            return new byte[0];
-
-        // Normalization of the values (lower case + smoothing of the keys)
-        if (values == null)
-            values = new HashMap<>();
-        if (!(values instanceof StructureValue))
-            values = values.entrySet().stream().collect(
-                    Collectors.toMap(
-                            (entry) -> entry.getKey().toLowerCase().trim(),
-                            (entry) -> entry.getValue(),
-                            (existing, value) -> value));
-        
         // Optionally the scope is determined.
         if (scope != null) {
             scope = scope.toLowerCase().trim();
 
             // If one is specified that does not exist, nothing is to be done.
             if (!this.scopes.containsKey(scope))
-                return this.model;
-            
+                return null;
+
             // Scopes are prepared independently and later processed like a
             // simple but exclusive placeholder.
-            patch = this.assemble(scope, values);
-            
-            values.clear();
+            // The transferred values are not changed for this.
+            final var patch = this.assemble(scope, values);
+            values = new HashMap<>();
             values.put(scope, patch);
         }
-        
-        int cursor = 0;
-        while (true) {
-            final var offset = Generator.scan(this.model, cursor++);
-            if (offset < 0)
-                break;
-            if (offset == 0)
+
+        final var output = new Output(clean);
+        this.assemble(values, clean, output);
+        return output;
+    }
+
+    /**
+     * Fills the current model with the transferred values, finalizes it and
+     * writes the result into the output.
+     * @param  values Values
+     * @param  output Output
+     * @throws IOException
+     *     In case of incorrect access to the output
+     */
+    private void assemble(Map<String, Object> values, Output output)
+            throws IOException {
+        try {this.assemble(this.normalize(values), true, output);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    /**
+     * Fills the segments of the current model with the transferred values and
+     * writes the result into the output.
+     * @param values Normalized values
+     * @param clean  {@code true} for final cleanup
+     * @param output Output
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void assemble(Map<String, Object> values, boolean clean, Output output) {
+
+        for (final var segment : this.model) {
+
+            if (Segment.Type.LITERAL.equals(segment.type)) {
+                output.write(segment.data);
                 continue;
-                
-            cursor--;
-
-            patch = new byte[0];
-            scope = new String(this.model, cursor, offset);
-            if (scope.matches(TEXT_PATTERN_PLACEHOLDER_VALUE_OPTIONAL_DISPOSABLE)
-                    || (TEXT_PATTERN_PLACEHOLDER_STRUCTURE_VALUE.equals(scope)
-                            && (values instanceof StructureValue))) {
-                scope = scope.substring(2, scope.length() -1);
-
-                // the placeholders of not transmitted keys are ignored, with
-                // 'clean' the placeholders are deleted
-                final var key = scope.replaceAll(":\\d+$", "");
-                if (!values.containsKey(key)
-                        && !clean) {
-                    cursor += scope.length() +3 +1;
-                    continue;
-                }
-                
-                // patch is determined by the key
-                object = values.get(key);
-
-                // If the key is a structure and the value is a map with
-                // values, then is filled recursively. To protect against
-                // infinite recursions, the current scope is removed from the
-                // value list.
-                //   e.g. #[A[[#[B[[#[A[[...]]...]]...]]
-                if (this.scopes.containsKey(scope)
-                        && Structure.Type.OBJECT.equals(this.scopes.get(scope).type)
-                        && object instanceof Map) {
-                    patch = this.assemble(scope, (Map)object);
-                } else if (this.scopes.containsKey(scope)
-                        && Structure.Type.OBJECT.equals(this.scopes.get(scope).type)
-                        && object instanceof Collection) {
-                    // Collection generate complex structures/tables through
-                    // deep, repetitive recursive generation.
-                    for (Object entry : ((Collection)object)) {
-                        if (entry instanceof Map) {
-                            model = this.assemble(scope, (Map)entry);
-                        } else if (entry instanceof byte[]) {
-                            model = (byte[])entry;
-                        } else if (entry != null) {
-                            model = String.valueOf(entry).getBytes();
-                        } else continue;
-                        cache = new byte[patch.length +model.length];
-                        System.arraycopy(patch, 0, cache, 0, patch.length);
-                        System.arraycopy(model, 0, cache, patch.length, model.length);
-                        patch = cache; 
-                    }
-                } else if (this.scopes.containsKey(scope)
-                        && Structure.Type.VALUE.equals(this.scopes.get(scope).type)
-                        && object != null) {
-                    patch = this.assemble(scope, new StructureValue(object));
-                } else if (object instanceof byte[]) {
-                    patch = (byte[])object;
-                } else if (object != null) {
-                    patch = String.valueOf(object).getBytes();
-                }
-                
-                if (!clean) {
-                
-                    // if necessary the # characters are encoded to protect the
-                    // placeholders and structure in the model
-                    var index = 0;
-                    while (index < patch.length) {
-                        if (patch[index++] != '#')
-                            continue;
-                        cache = new byte[patch.length +6];
-                        System.arraycopy(patch, 0, cache, 0, index);
-                        System.arraycopy(("[0x23]").getBytes(), 0, cache, index, 6);
-                        System.arraycopy(patch, index, cache, index +6, patch.length -index);
-                        patch = cache;
-                    }
-                    
-                    if (this.scopes.containsKey(scope)) {
-                        scope = ("#[").concat(scope).concat("]");
-                        cache = new byte[patch.length +scope.length()];
-                        System.arraycopy(patch, 0, cache, 0, patch.length);
-                        System.arraycopy(scope.getBytes(), 0, cache, patch.length, scope.length());
-                        patch = cache;
+            }
+
+            // Hexadecimal placeholders are only resolved with clean, because
+            // they can contain unwanted (control) characters, which hinders
+            // rendering.
+            if (Segment.Type.HEXADECIMAL.equals(segment.type)) {
+                if (clean)
+                    output.write(segment.data);
+                else output.retain(segment);
+                continue;
+            }
+
+            // The placeholder #[#] is only used in structures for single
+            // values, otherwise the placeholder is removed.
+            if (segment.scope == null
+                    && !(values instanceof StructureValue))
+                continue;
+
+            // the placeholders of not transmitted keys are ignored, with
+            // 'clean' the placeholders are deleted
+            if (!values.containsKey(segment.key)
+                    && !clean) {
+                output.retain(segment);
+                continue;
+            }
+
+            // patch is determined by the key
+            final var object = values.get(segment.key);
+            final var structure = this.lookup(segment.scope);
+
+            // If the key is a structure and the value is a map with values,
+            // then is filled recursively. To protect against infinite
+            // recursions, the current scope is excluded when filling.
+            //   e.g. #[A[[#[B[[#[A[[...]]...]]...]]
+            var patch = new byte[0];
+            if (structure != null
+                    && Structure.Type.OBJECT.equals(structure.type)
+                    && object instanceof Map) {
+                this.assemble(segment.scope, (Map)object, output);
+            } else if (structure != null
+                    && Structure.Type.OBJECT.equals(structure.type)
+                    && Generator.iterable(object)) {
+                // Collection generate complex structures/tables through
+                // deep, repetitive recursive generation. Iterables, iterators
+                // and streams are consumed lazily entry by entry. Large
+                // collections are optionally expanded in parallel, because
+                // the entries are independent of each other.
+                if (this.threshold > 0
+                        && object instanceof Collection
+                        && ((Collection)object).size() >= this.threshold) {
+                    final var scope = segment.scope;
+                    ((Collection<?>)object).parallelStream()
+                            .map(entry -> this.expand(scope, entry))
+                            .forEachOrdered(output::write);
+                } else for (final var iterator = Generator.iterate(object); iterator.hasNext();) {
+                    final var entry = iterator.next();
+                    if (entry instanceof Map) {
+                        this.assemble(segment.scope, (Map)entry, output);
+                    } else if (entry instanceof byte[]) {
+                        output.write((byte[])entry);
+                    } else if (entry != null) {
+                        output.write(String.valueOf(entry).getBytes(StandardCharsets.UTF_8));
                     }
                 }
-                
-            } else if (scope.matches(TEXT_PATTERN_PLACEHOLDER_VALUE_HEXADECIMAL)) {
-                
-                // Hexadecimal placeholders are only resolved with clean, because
-                // they can contain unwanted (control) characters, which hinders
-                // rendering.
-                if (!clean) {
-                    cursor += scope.length() +1;
-                    continue;            
-                }
-                
-                // hexadecimal code is converted into bytes
-                scope = scope.substring(4, scope.length() -1);
-                scope = ("ff").concat(scope);
-                patch = new BigInteger(scope, 16).toByteArray();
-                patch = Arrays.copyOfRange(patch, 2, patch.length);                
+            } else if (structure != null
+                    && Structure.Type.VALUE.equals(structure.type)
+                    && object != null) {
+                this.assemble(segment.scope, new StructureValue(object), output);
+            } else if (object instanceof byte[]) {
+                patch = (byte[])object;
+            } else if (object != null) {
+                patch = String.valueOf(object).getBytes(StandardCharsets.UTF_8);
             }
-            
-            // model is rebuilt with the patch
-            cache = new byte[this.model.length -offset +patch.length];
-            System.arraycopy(this.model, 0, cache, 0, cursor);
-            System.arraycopy(patch, 0, cache, cursor, patch.length);
-            System.arraycopy(this.model, cursor +offset, cache, cursor +patch.length, this.model.length -cursor -offset);
-            this.model = cache;
-            
-            cursor += patch.length;
+
+            output.write(patch);
+
+            // For structures, the placeholder is retained for reuse and
+            // follows the inserted value.
+            if (!clean
+                    && structure != null)
+                output.retain(segment);
         }
-        
-        return this.model;
+    }
+
+    /**
+     * Fills a structure with an entry of a collection.
+     * The method is used for the parallel expansion and is thread-safe,
+     * because the scopes and the model are only read.
+     * @param  scope Scope
+     * @param  entry Entry of the collection
+     * @return the filled structure for the entry
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] expand(String scope, Object entry) {
+        if (entry instanceof Map)
+            return this.assemble(scope, (Map<String, Object>)entry);
+        if (entry instanceof byte[])
+            return (byte[])entry;
+        if (entry != null)
+            return String.valueOf(entry).getBytes(StandardCharsets.UTF_8);
+        return new byte[0];
+    }
+
+    /**
+     * Checks whether a value can be iterated as a list of entries for a
+     * structure. Supported are iterables (including collections), iterators
+     * and streams.
+     * @param  object Value
+     * @return {@code true} if the value can be iterated
+     */
+    private static boolean iterable(Object object) {
+        return object instanceof Iterable
+                || object instanceof Iterator
+                || object instanceof Stream;
+    }
+
+    /**
+     * Returns an iterator for an iterable value. Iterators and streams can
+     * only be consumed once, streams are not closed by the generator.
+     * @param  object Iterable value
+     * @return the iterator for the value
+     */
+    private static Iterator<?> iterate(Object object) {
+        if (object instanceof Iterator)
+            return (Iterator<?>)object;
+        if (object instanceof Stream)
+            return ((Stream<?>)object).iterator();
+        return ((Iterable<?>)object).iterator();
+    }
+
+    /**
+     * Determines the structure of a scope. Excluded scopes are ignored.
+     * @param  scope Scope
+     * @return the structure of the scope, otherwise {@code null}
+     */
+    private Structure lookup(String scope) {
+        if (scope == null
+                || (this.exclusion != null
+                        && this.exclusion.contains(scope)))
+            return null;
+        return this.scopes.get(scope);
+    }
+
+    /**
+     * Normalizes the values, means lower case and smoothing of the keys.
+     * Values of structures for single values are not normalized. If all keys
+     * are already normalized, the values are used directly without a copy.
+     * @param  values Values
+     * @return the normalized values
+     */
+    private Map<String, Object> normalize(Map<String, Object> values) {
+        if (values == null)
+            return new HashMap<>();
+        if (values instanceof StructureValue
+                || Generator.normalized(values))
+            return values;
+        return values.entrySet().stream().collect(
+                Collectors.toMap(
+                        (entry) -> entry.getKey().toLowerCase().trim(),
+                        (entry) -> entry.getValue(),
+                        (existing, value) -> value));
+    }
+
+    /**
+     * Checks whether all keys of the values are already normalized. The check
+     * does not allocate memory, because lower case and smoothing return the
+     * same string for normalized keys.
+     * @param  values Values
+     * @return {@code true} if all keys are normalized
+     */
+    private static boolean normalized(Map<String, Object> values) {
+        for (final String key : values.keySet())
+            if (!key.equals(key.toLowerCase().trim()))
+                return false;
+        return true;
     }
 
     /**
@@ -642,7 +774,24 @@ class Generator {
      * @return the currently filled template
      */
     byte[] extract() {
-        return this.assemble(null, null, true).clone();
+        final var output = this.assemble(null, null, true).toByteArray();
+        this.model = new Segment[] {new Segment(Segment.Type.LITERAL, output)};
+        return output.clone();
+    }
+
+    /**
+     * Writes the currently filled template into the output stream.
+     * In difference to {@link #extract()}, the template is finalized directly
+     * into the output stream without intermediate copies and the current
+     * model is not changed, so it can be filled further.
+     * @param  output Output stream
+     * @throws IOException
+     *     In case of incorrect access to the output stream
+     */
+    void write(OutputStream output)
+            throws IOException {
+        this.assemble(null, new Output(output));
+        output.flush();
     }
     
     /**
@@ -665,10 +814,10 @@ class Generator {
      *         array is returned
      */
     byte[] extract(String scope, Map<String, Object> values) {
-        if (scope != null
-                && !scope.matches("^" + TEXT_PATTERN_IDENTIFIER + "$"))
+        if (scope == null
+                || !PATTERN_IDENTIFIER.matcher(scope).matches())
             return new byte[0];
-        return this.assemble(scope, values);
+        return this.assemble(scope.toLowerCase(), values);
     }
 
     /**
@@ -688,51 +837,417 @@ class Generator {
         if (scope != null)
             scope = scope.toLowerCase().trim();
         if (scope != null
-                && !scope.matches("^" + TEXT_PATTERN_IDENTIFIER + "$"))
+                && !PATTERN_IDENTIFIER.matcher(scope).matches())
             return;
-        this.model = this.assemble(scope, values, false);
+        final var output = this.assemble(scope, values, false);
+        if (output != null)
+            this.model = output.toSegments();
+    }
+
+    /**
+     * Compiled and immutable model of a template with the extracted structures
+     * (scopes). The model does not change after compiling and can therefore be
+     * shared by any number of generators and threads, the state of the filling
+     * is only contained in the generator.
+     */
+    static class Model {
+
+        /** Scopes with structures of the template */
+        private final HashMap<String, Structure> scopes;
+
+        /** Compiled segments of the template */
+        private final Segment[] data;
+
+        /** Internal incremental counter used for serials when compiling */
+        private long serial;
+
+        /**
+         * Constructor, creates a new model by compiling the template.
+         * @param model Template as bytes
+         */
+        private Model(byte[] model) {
+            this.scopes = new HashMap<>();
+            this.data = this.compile(model);
+        }
+
+        /**
+         * Analyzes the model and compiles it for final processing.
+         * All placeholders are checked for syntactic correctness. Invalid
+         * placeholders are removed. In addition, all structures
+         * (sub-templates) are determined, which then also define the scopes
+         * and are then replaced by a simple placeholder. The result is a final
+         * model as a sequence of segments with normalized keys, which cannot
+         * be changed at runtime.
+         * @param  model Model
+         * @return the final compiled model
+         */
+        private Segment[] compile(byte[] model) {
+
+            if (model == null)
+                return new Segment[0];
+
+            final var output = new Output(false);
+
+            var origin = 0;
+            var cursor = 0;
+            while (true) {
+                cursor = Generator.locate(model, cursor);
+                if (cursor < 0)
+                    break;
+                final var offset = Generator.scan(model, cursor);
+
+                output.write(model, origin, cursor -origin);
+                cursor += offset;
+                origin = cursor;
+
+                final var fetch = new String(model, cursor -offset, offset, StandardCharsets.UTF_8);
+                if (PATTERN_PLACEHOLDER_STRUCTURE.matcher(fetch).matches()) {
+
+                    // scope is determined from: #[scope[[structure]]
+                    var scope = fetch.substring(2);
+                    scope = scope.substring(0, scope.indexOf('['));
+                    scope = scope.toLowerCase();
+
+                    // scope and structure are registered if scope does not exist,
+                    // the structure is extracted from the model
+                    if (!this.scopes.containsKey(scope))
+                        this.scopes.put(scope, new Structure(this.compile(
+                                Arrays.copyOfRange(model, cursor -offset +scope.length() +4, cursor -3))));
+
+                    // as new placeholder only the scope is used
+                    output.retain(new Segment(scope, scope));
+
+                } else if (PATTERN_PLACEHOLDER_STRUCTURE_DISPOSABLE.matcher(fetch).matches()) {
+
+                    // scope is determined from: #[scope{{structure}}]
+                    var scope = fetch.substring(2);
+                    scope = scope.substring(0, scope.indexOf('{'));
+                    scope = scope.toLowerCase();
+
+                    // unique scope is registered with the structure, the structure
+                    // is extracted from the model
+                    final var serial = String.format("%s:%d", scope, ++this.serial);
+                    this.scopes.put(serial, new Structure(this.compile(
+                            Arrays.copyOfRange(model, cursor -offset +scope.length() +4, cursor -3))));
+
+                    // as new placeholder only the unique scope is used
+                    output.retain(new Segment(scope, serial));
+
+                } else if (PATTERN_PLACEHOLDER_VALUE.matcher(fetch).matches()) {
+
+                    final var scope = fetch.substring(2, fetch.length() -1).toLowerCase();
+                    output.retain(new Segment(scope, scope));
+
+                } else if (TEXT_PATTERN_PLACEHOLDER_STRUCTURE_VALUE.equals(fetch)) {
+
+                    output.retain(new Segment(KEY_STRUCTURE_VALUE, null));
+
+                } else if (PATTERN_PLACEHOLDER_VALUE_HEXADECIMAL.matcher(fetch).matches()) {
+
+                    // hexadecimal code is converted into bytes
+                    final var code = fetch.substring(4, fetch.length() -1);
+                    final var data = new byte[code.length() /2];
+                    for (var loop = 0; loop < data.length; loop++)
+                        data[loop] = (byte)Integer.parseInt(code.substring(loop *2, loop *2 +2), 16);
+                    output.retain(new Segment(Segment.Type.HEXADECIMAL, data));
+                }
+
+                // All other placeholders are invalid and are removed. This also
+                // includes the internal syntax #[scope:id] for compiled
+                // placeholders of disposable structures, because this must not be
+                // used directly in the template, because the impact and outcome
+                // is not predictable.
+            }
+
+            output.write(model, origin, model.length -origin);
+            return output.toSegments();
+        }
+
+        /**
+         * Determines the paths of all placeholders that can be filled with
+         * data. Paths of nested structures are separated by dots and use the
+         * normalized keys, e.g. {@code rows.name}. Structures are followed as
+         * when filling, recursive structures therefore end at the scope that
+         * is already being filled.
+         * @param paths      paths of all placeholders
+         * @param structures paths of the placeholders of structures
+         */
+        void analyze(Collection<String> paths, Collection<String> structures) {
+            this.analyze(this.data, null, null, paths, structures);
+        }
+
+        private void analyze(Segment[] segments, String path, Exclusion exclusion,
+                Collection<String> paths, Collection<String> structures) {
+            for (final var segment : segments) {
+                if (!Segment.Type.PLACEHOLDER.equals(segment.type)
+                        || segment.scope == null)
+                    continue;
+                final var key = path == null ? segment.key : path + "." + segment.key;
+                paths.add(key);
+                if (exclusion != null
+                        && exclusion.contains(segment.scope))
+                    continue;
+                final var structure = this.scopes.get(segment.scope);
+                if (structure == null)
+                    continue;
+                structures.add(key);
+                if (Structure.Type.OBJECT.equals(structure.type))
+                    this.analyze(structure.data, key, new Exclusion(segment.scope, exclusion), paths, structures);
+            }
+        }
+    }
+
+    /**
+     * Immutable chain of the scopes that are currently being filled and are
+     * therefore excluded as structure in nested fillings. Nested fillings
+     * extend the chain without copying the scopes.
+     */
+    private static class Exclusion {
+
+        private final String scope;
+
+        private final Exclusion parent;
+
+        private final int hash;
+
+        private Exclusion(String scope, Exclusion parent) {
+            this.scope = scope;
+            this.parent = parent;
+            this.hash = 31 *(parent != null ? parent.hash : 0) +scope.hashCode();
+        }
+
+        private boolean contains(String scope) {
+            for (var exclusion = this; exclusion != null; exclusion = exclusion.parent)
+                if (exclusion.scope.equals(scope))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object)
+                return true;
+            if (!(object instanceof Exclusion)
+                    || this.hash != ((Exclusion)object).hash)
+                return false;
+            var compare = (Exclusion)object;
+            for (var exclusion = this; exclusion != null; exclusion = exclusion.parent) {
+                if (compare == null
+                        || !exclusion.scope.equals(compare.scope))
+                    return false;
+                if (exclusion.parent == compare.parent)
+                    return true;
+                compare = compare.parent;
+            }
+            return compare == null;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * Memo of filled structures for one filling (rendering). Structures are
+     * identified by scope, excluded scopes and the identity of the value.
+     * The memo is thread-safe and counts the hits and misses, so that the
+     * benefit can be evaluated.
+     */
+    static class Memo {
+
+        private final Map<Key, byte[]> entries = new ConcurrentHashMap<>();
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private byte[] lookup(Key key) {
+            final var data = this.entries.get(key);
+            if (data != null)
+                this.hits.increment();
+            else this.misses.increment();
+            return data;
+        }
+
+        private void store(Key key, byte[] data) {
+            this.entries.put(key, data);
+        }
+
+        /**
+         * Returns the number of structures that were taken over from the memo.
+         * @return number of hits
+         */
+        long getHits() {
+            return this.hits.sum();
+        }
+
+        /**
+         * Returns the number of structures that had to be filled.
+         * @return number of misses
+         */
+        long getMisses() {
+            return this.misses.sum();
+        }
+
+        private static class Key {
+
+            private final String scope;
+
+            private final Exclusion exclusion;
+
+            private final Object value;
+
+            private final int hash;
+
+            private Key(String scope, Exclusion exclusion, Object value) {
+                this.scope = scope;
+                this.exclusion = exclusion;
+                this.value = value;
+                this.hash = Objects.hash(scope, exclusion, System.identityHashCode(value));
+            }
+
+            @Override
+            public boolean equals(Object object) {
+                if (this == object)
+                    return true;
+                if (!(object instanceof Key))
+                    return false;
+                final var key = (Key)object;
+                return this.value == key.value
+                        && this.scope.equals(key.scope)
+                        && Objects.equals(this.exclusion, key.exclusion);
+            }
+
+            @Override
+            public int hashCode() {
+                return this.hash;
+            }
+        }
     }
 
     private static class StructureValue extends HashMap<String, Object> {
         private StructureValue(Object value) {
             super();
-            this.put("#", value);
+            this.put(KEY_STRUCTURE_VALUE, value);
         }
     }
 
-    private static class Structure {
+    /**
+     * Immutable segment of a compiled model. Segments are literals, which are
+     * used unchanged, and placeholders of values, structures, structure values
+     * and hexadecimal values. For placeholders, the key is normalized and the
+     * scope refers to the structure, for disposable structures including the
+     * serial. The placeholder {@code #[#]} for structure values has no scope.
+     */
+    private static class Segment {
+
+        private final Type type;
 
         private final byte[] data;
 
-        private final Type type;
+        private final String key;
 
-        private Structure(byte[] data) {
+        private final String scope;
 
-            this.data = data;
+        private Segment(Type type, byte[] data) {
+            this.type  = type;
+            this.data  = data;
+            this.key   = null;
+            this.scope = null;
+        }
 
-            var cursor = 0;
-            while (true) {
-                final var offset = Generator.scan(data, cursor++);
-                if (offset < 0)
-                    break;
-                if (offset == 0)
-                    continue;
-                cursor--;
-                final var fetch = new String(data, cursor, offset);
-                if (!fetch.matches(TEXT_PATTERN_PLACEHOLDER_STRUCTURE)
-                        && !fetch.matches(TEXT_PATTERN_PLACEHOLDER_STRUCTURE_DISPOSABLE)
-                        && !fetch.matches(TEXT_PATTERN_PLACEHOLDER_VALUE)) {
-                    cursor += fetch.length() +1;
-                    continue;
-                }
-                this.type = Type.OBJECT;
+        private Segment(String key, String scope) {
+            this.type  = Type.PLACEHOLDER;
+            this.data  = null;
+            this.key   = key;
+            this.scope = scope;
+        }
+
+        private enum Type {
+            LITERAL, PLACEHOLDER, HEXADECIMAL
+        }
+    }
+
+    /**
+     * Output of the filling of a model. Finalized output (clean) is a plain
+     * byte array, otherwise the output is a model with literals and retained
+     * placeholders as segments.
+     */
+    private static class Output {
+
+        private final ByteArrayOutputStream buffer;
+
+        private final OutputStream target;
+
+        private final List<Segment> segments;
+
+        private Output(boolean clean) {
+            this.buffer = new ByteArrayOutputStream();
+            this.target = this.buffer;
+            this.segments = clean ? null : new ArrayList<>();
+        }
+
+        private Output(OutputStream target) {
+            this.buffer = null;
+            this.target = target;
+            this.segments = null;
+        }
+
+        private void write(byte[] data) {
+            this.write(data, 0, data.length);
+        }
+
+        private void write(byte[] data, int offset, int length) {
+            if (length <= 0)
                 return;
+            try {this.target.write(data, offset, length);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
             }
-            this.type = Type.VALUE;
+        }
+
+        private void retain(Segment segment) {
+            this.flush();
+            this.segments.add(segment);
+        }
+
+        private void flush() {
+            if (this.buffer.size() <= 0)
+                return;
+            this.segments.add(new Segment(Segment.Type.LITERAL, this.buffer.toByteArray()));
+            this.buffer.reset();
+        }
+
+        private Segment[] toSegments() {
+            this.flush();
+            return this.segments.toArray(new Segment[0]);
+        }
+
+        private byte[] toByteArray() {
+            return this.buffer.toByteArray();
+        }
+    }
+
+    private static class Structure {
+
+        private final Segment[] data;
+
+        private final Type type;
+
+        private Structure(Segment[] data) {
+
+            // Structures with placeholders for values and other structures
+            // are objects, otherwise single values. Placeholders of disposable
+            // structures are not considered.
+            this.data = data;
+            this.type = Arrays.stream(data)
+                    .anyMatch(segment -> Segment.Type.PLACEHOLDER.equals(segment.type)
+                            && segment.key.equals(segment.scope)) ? Type.OBJECT : Type.VALUE;
         }
 
         private enum Type {
             OBJECT, VALUE
         }
     }
-}
\ No newline at end of file
+}
@@ -80,6 +80,10 @@ public class Runner {
         System.out.println();
         
         Service.Template.scan();
+
+        // The templates are rendered again when they are changed, therefore
+        // the compiled templates must not be cached.
+        Service.Template.Cache.setCapacity(0);
         
         final var fileMap = new HashMap<File, Date>();
         while (true) {
@@ -16,11 +16,11 @@
  */
 package com.seanox.pdf;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
 import java.lang.annotation.Documented;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -28,42 +28,66 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-
-import org.apache.commons.lang3.SerializationUtils;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
 import org.apache.pdfbox.io.IOUtils;
 import org.apache.pdfbox.io.RandomAccessReadBuffer;
-import org.apache.pdfbox.multipdf.Overlay;
+import org.apache.pdfbox.multipdf.LayerUtility;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
-import org.apache.pdfbox.multipdf.Splitter;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.util.Matrix;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
 import com.seanox.pdf.Service.Template.Resources;
@@ -380,12 +404,99 @@ public class Service {
             final var meta = new Meta();
             meta.locale = this.locale;
             meta.data = this.data;
-            if (Objects.nonNull(this.statics))
-                meta.statics = SerializationUtils.clone(new HashMap<>(this.statics));
-            if (Objects.nonNull(this.data))
-                meta.data = SerializationUtils.clone(new HashMap<>(this.data));
+            meta.statics = this.statics;
             return meta;
         }
+
+        /**
+         * Map as layer over the data of the caller (copy-on-write). Reading
+         * uses the layer first and then the data, writing only changes the
+         * layer. So values such as locale, page and pages can be added during
+         * rendering without copying the data of the caller and without
+         * changing it. The data of the caller is neither copied nor required
+         * to be serializable.
+         */
+        private static class Layer extends AbstractMap<String, Object> {
+
+            /** Data of the caller (read-only) */
+            private final Map<String, Object> data;
+
+            /** Values added or changed during rendering */
+            private final Map<String, Object> layer;
+
+            /**
+             * Constructor, creates a new Layer over the data.
+             * @param data data of the caller or {@code null}
+             */
+            Layer(final Map<String, Object> data) {
+                this.data = Objects.nonNull(data) ? data : Collections.emptyMap();
+                this.layer = new HashMap<>();
+            }
+
+            @Override
+            public boolean containsKey(final Object key) {
+                return this.layer.containsKey(key)
+                        || this.data.containsKey(key);
+            }
+
+            @Override
+            public Object get(final Object key) {
+                if (this.layer.containsKey(key))
+                    return this.layer.get(key);
+                return this.data.get(key);
+            }
+
+            @Override
+            public Object put(final String key, final Object value) {
+                final var previous = this.get(key);
+                this.layer.put(key, value);
+                return previous;
+            }
+
+            @Override
+            public Set<String> keySet() {
+                // The keys are determined without the values, so that views
+                // of the data with lazy values are not prepared completely.
+                return new AbstractSet<>() {
+
+                    @Override
+                    public Iterator<String> iterator() {
+                        return Stream.concat(Layer.this.layer.keySet().stream(),
+                                Layer.this.data.keySet().stream()
+                                        .filter(key -> !Layer.this.layer.containsKey(key)))
+                                .iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return Layer.this.layer.size()
+                                + (int)Layer.this.data.keySet().stream()
+                                        .filter(key -> !Layer.this.layer.containsKey(key)).count();
+                    }
+                };
+            }
+
+            @Override
+            public Set<Entry<String, Object>> entrySet() {
+                return new AbstractSet<>() {
+
+                    @Override
+                    public Iterator<Entry<String, Object>> iterator() {
+                        return Stream.concat(Layer.this.layer.entrySet().stream(),
+                                Layer.this.data.entrySet().stream()
+                                        .filter(entry -> !Layer.this.layer.containsKey(entry.getKey())))
+                                .iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return Layer.this.layer.size()
+                                + (int)Layer.this.data.keySet().stream()
+                                        .filter(key -> !Layer.this.layer.containsKey(key)).count();
+                    }
+                };
+            }
+        }
     }
 
     /** 
@@ -397,6 +508,15 @@ public class Service {
      */
     public static abstract class Template {
 
+        /** Document builders of the layout per thread */
+        private final static ThreadLocal<DocumentBuilder> builders = new ThreadLocal<>();
+
+        /** Pattern for the opening tag of the body */
+        private final static Pattern PATTERN_BODY = Pattern.compile("<body\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+
+        /** Entities predefined by XML, which are not resolved */
+        private final static Set<String> XML_ENTITIES = Set.of("&amp;", "&lt;", "&gt;", "&quot;", "&apos;");
+
         static Template instantiate(final Class<? extends Template> template)
                 throws Exception {
             final var constructor = template.getDeclaredConstructor();
@@ -429,6 +549,42 @@ public class Service {
              * extension 'html'.
              */
             String template() default "";
+
+            /**
+             * Layout of header and footer.
+             * Default value is {@link Layout#PAGE}.
+             */
+            Layout layout() default Layout.PAGE;
+        }
+
+        /** Layout of header and footer */
+        public enum Layout {
+
+            /** Header and footer are laid out separately for each page. */
+            PAGE,
+
+            /**
+             * Header and footer of all pages are laid out together in one pass,
+             * as one document with one page per page of the content. Each page
+             * is a block with the height of the page, which is the containing
+             * block for positioned elements. The layout therefore requires a
+             * body without margin, padding and border and selectors that do
+             * not use the body as parent of header and footer. If the layout
+             * does not result in exactly one page per page, header and footer
+             * are laid out separately for each page.
+             */
+            DOCUMENT,
+
+            /**
+             * Header and footer are running elements of the content, which the
+             * layout engine places in the page margin boxes top-center and
+             * bottom-center of each page, so that the content is laid out in
+             * one pass without overlays. The keys {@code page} and
+             * {@code pages} contain the counters of the layout engine. Header
+             * and footer are limited to the margin boxes and the styles of
+             * the template must take this into account.
+             */
+            RUNNING
         }
         
         /** Array of template implementations detected in the ClassPath */
@@ -486,6 +642,42 @@ public class Service {
             return resource.base().trim();
         }  
         
+        /**
+         * Returns the layout of header and footer.
+         * @return the layout of header and footer
+         */
+        protected Layout getLayout() {
+            final var resource = this.getClass().getAnnotation(Resources.class);
+            if (Objects.isNull(resource))
+                return Layout.PAGE;
+            return resource.layout();
+        }
+
+        /**
+         * Checks whether the markup of a fragment (header, footer) depends on
+         * the page, means uses the keys {@code page} or {@code pages}. Fragments
+         * that do not depend on the page are laid out only once and overlaid
+         * on all pages. Because the service does not know the syntax of the
+         * markup generator, it assumes a dependency.
+         * @param  markup markup of the fragment
+         * @return {@code true} if the fragment depends on the page
+         */
+        protected boolean isPageDependent(final String markup) {
+            return true;
+        }
+
+        /**
+         * Returns the executor for the layout of page dependent headers and
+         * footers. With an executor, the layouts of the pages run in parallel
+         * and are stamped in the order of the pages afterwards. Without
+         * executor (default), the layouts are created one after the other.
+         * The executor is used by the template and is not shut down.
+         * @return the executor for the layout or {@code null}
+         */
+        protected Executor getExecutor() {
+            return null;
+        }
+
         /**
          * Returns the URI of resources path (CSS, images, fonts, ...).
          * @return the URI of resources path
@@ -586,7 +778,7 @@ public class Service {
          */
         protected String getMarkup()
                 throws Exception {
-            return new String(this.getSourceStream().readAllBytes());
+            return new String(this.getSourceStream().readAllBytes(), StandardCharsets.UTF_8);
         }
 
         /**
@@ -762,26 +954,96 @@ public class Service {
             return page;
         }
 
-        private static String normalizeHtmlEntities(String text) {
+        /**
+         * Resolves the named HTML entities in the markup, which are unknown in
+         * XML, into the corresponding characters. The entities predefined by
+         * XML are retained. The markup is scanned once for ampersands and
+         * returned unchanged if it contains no named HTML entities.
+         * @param  text markup to be normalized
+         * @return the normalized markup
+         */
+        private static String normalizeHtmlEntities(final String text) {
             if (Objects.isNull(text))
                 return "";
 
-            text = text.replace("&amp;", "&#38;");
-            text = text.replace("&lt;", "&#60;");
-            text = text.replace("&gt;", "&#62;");
-
-            final var buffer = new StringBuffer();
-            final var pattern = Pattern.compile("&\\w+;");
-            final var matcher = pattern.matcher(text);
-            while (matcher.find()) {
-                var entity = matcher.group(0);
-                entity = StringEscapeUtils.unescapeHtml4(entity);
-                if (entity.charAt(0) > 0x7F)
-                    entity = "&#" + ((int)entity.charAt(0)) + ";";
-                matcher.appendReplacement(buffer, entity);
+            StringBuilder buffer = null;
+            var offset = 0;
+            for (var cursor = text.indexOf('&'); cursor >= 0; cursor = text.indexOf('&', cursor +1)) {
+                var end = cursor +1;
+                while (end < text.length()
+                        && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')
+                        && text.charAt(end) <= 0x7F)
+                    end++;
+                if (end <= cursor +1
+                        || end >= text.length()
+                        || text.charAt(end) != ';')
+                    continue;
+                final var entity = text.substring(cursor, end +1);
+                if (XML_ENTITIES.contains(entity))
+                    continue;
+                final var character = StringEscapeUtils.unescapeHtml4(entity);
+                if (character.equals(entity))
+                    continue;
+                if (Objects.isNull(buffer))
+                    buffer = new StringBuilder(text.length());
+                buffer.append(text, offset, cursor).append(character);
+                offset = end +1;
+                cursor = end;
+            }
+            if (Objects.isNull(buffer))
+                return text;
+            return buffer.append(text, offset, text.length()).toString();
+        }
+
+        /**
+         * Parses the markup into a namespace-aware W3C document, as required by
+         * the layout engine. The document builder is reused per thread and
+         * external DTDs are not loaded, because named entities are resolved
+         * before with {@link #normalizeHtmlEntities(String)}.
+         * @param  markup markup to be parsed
+         * @return the parsed document
+         * @throws Exception
+         *     In case of unexpected errors.
+         */
+        private static Document parse(final String markup)
+                throws Exception {
+            var builder = Template.builders.get();
+            if (Objects.isNull(builder)) {
+                final var factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+                builder = factory.newDocumentBuilder();
+                Template.builders.set(builder);
             }
-            matcher.appendTail(buffer);
-            return buffer.toString();
+            builder.reset();
+            builder.setErrorHandler(new DefaultHandler() {
+                @Override
+                public void fatalError(final SAXParseException exception)
+                        throws SAXException {
+                    throw exception;
+                }
+            });
+            return builder.parse(new InputSource(new StringReader(markup)));
+        }
+
+        /**
+         * Lays out the markup as PDF. The markup is passed to the layout engine
+         * as an already parsed document, so that the layout engine does not
+         * have to parse it again. Because the document is parsed without DTD,
+         * named entities (e.g. from static texts) are normalized before for
+         * all fragments.
+         * @param  markup markup to be laid out
+         * @param  base   base URI of the resources
+         * @param  output output of the PDF
+         * @throws Exception
+         *     In case of unexpected errors.
+         */
+        private static void layout(final String markup, final URI base, final OutputStream output)
+                throws Exception {
+            final var builder = new PdfRendererBuilder();
+            builder.withW3cDocument(Template.parse(Template.normalizeHtmlEntities(markup)), base.toString());
+            builder.toStream(output);
+            builder.run();
         }
 
         /**
@@ -798,11 +1060,10 @@ public class Service {
                 meta = new Meta();
             else meta = meta.clone();
 
-            // Data is copied because it is manipulated later for the header and
+            // Data is layered because it is manipulated later for the header and
             // footer by adding the keys and values for locale, page and pages.
-            if (Objects.isNull(meta.data))
-                meta.data = new HashMap<>();
-            else meta.data = new HashMap<>(meta.data);
+            // The data of the caller is neither copied nor changed.
+            meta.data = new Meta.Layer(meta.data);
 
             var base = this.getBase();
             if (Objects.isNull(base.getScheme())) {
@@ -813,16 +1074,18 @@ public class Service {
             if (!base.toString().endsWith("/"))
                 base = new URI(base + "/");
 
-            final var markup = this.getMarkup();
-            final var multiplex = Multiplex.demux(markup);
+            final var layout = this.getLayout();
+            final var multiplex = this.demux(layout);
 
-            PdfRendererBuilder builder;
+            // With the layout RUNNING, header and footer are part of the
+            // content and the layout engine provides the page numbers.
+            if (Layout.RUNNING.equals(layout)) {
+                meta.data.put("page", "<page-number></page-number>");
+                meta.data.put("pages", "<page-count></page-count>");
+            }
 
             final var content = new ByteArrayOutputStream();
-            builder = new PdfRendererBuilder();
-            builder.withHtmlContent(Template.normalizeHtmlEntities(this.generate(multiplex.content, Type.DATA, meta)), base.toString());
-            builder.toStream(content);
-            builder.run();
+            Template.layout(this.generate(multiplex.content, Type.DATA, meta), base, content);
 
             try (final var document = Loader.loadPDF(content.toByteArray())) {
 
@@ -846,66 +1109,439 @@ public class Service {
 
                 meta.data.put("pages", String.valueOf(document.getNumberOfPages()));
 
-                try (final var pages = new CloseableList<>(new Splitter().split(document));
-                        final var closeables = new CloseableList<>()) {
+                final var header = Objects.nonNull(multiplex.header)
+                        && !multiplex.header.trim().isEmpty() ? multiplex.header : null;
+                final var footer = Objects.nonNull(multiplex.footer)
+                        && !multiplex.footer.trim().isEmpty() ? multiplex.footer : null;
 
-                    for (var page : pages) {
-                        var offset = pages.indexOf(page);
-                        meta.data.put("page", String.valueOf(offset +1));
-                        
-                        if (Objects.nonNull(multiplex.header)
-                                && !multiplex.header.trim().isEmpty()) {
-                            final var header = new ByteArrayOutputStream();
-                            builder = new PdfRendererBuilder();
-                            builder.withHtmlContent(this.generate(multiplex.header, Type.HEADER, meta), base.toString());
-                            builder.toStream(header);
-                            builder.run();
-                            
-                            try (final var overlay = new Overlay()) {
-                                overlay.setInputPDF(page);
-                                overlay.setAllPagesOverlayPDF(Loader.loadPDF(header.toByteArray()));
-                                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                                overlay.overlay(new HashMap<>()).save(output);
-                                page = Loader.loadPDF(output.toByteArray());
-                                closeables.add(page);
-                            }
-                        }
+                this.overlay(document, header, footer, meta, base);
 
-                        if (Objects.nonNull(multiplex.footer)
-                                && !multiplex.footer.trim().isEmpty()) {
-                            final var footer = new ByteArrayOutputStream();
-                            builder = new PdfRendererBuilder();
-                            builder.withHtmlContent(this.generate(multiplex.footer, Type.FOOTER, meta), base.toString());
-                            builder.toStream(footer);
-                            builder.run();
-
-                            try (final var overlay = new Overlay()) {
-                                overlay.setInputPDF(page);
-                                overlay.setAllPagesOverlayPDF(Loader.loadPDF(footer.toByteArray()));
-                                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                                overlay.overlay(new HashMap<>()).save(output);
-                                page = Loader.loadPDF(output.toByteArray());
-                                closeables.add(page);
-                            }
-                        }
+                final var output = new ByteArrayOutputStream();
+                document.save(output);
+                return output.toByteArray();
+            }
+        }
+
+        /**
+         * Returns the separated fragments (header, content, footer) of the
+         * markup. For template implementations with {@link Resources}, the
+         * fragments are taken from the process-wide {@link Cache}, if
+         * possible, otherwise the markup is read and separated.
+         * @param  layout layout of header and footer
+         * @return the separated fragments of the markup
+         * @throws Exception
+         *     In case of unexpected errors.
+         */
+        Multiplex demux(final Layout layout)
+                throws Exception {
+            if (Objects.isNull(this.getClass().getAnnotation(Resources.class))
+                    || Cache.capacity <= 0)
+                return Multiplex.demux(this.getMarkup(), layout);
+            final var key = new Cache.Key(this.getClass(), this.getBasePath(), this.getSourcePath(), layout);
+            var multiplex = Cache.compilations.get(key);
+            if (Objects.isNull(multiplex)) {
+                multiplex = Multiplex.demux(this.getMarkup(), layout);
+                Cache.compilations.put(key, multiplex);
+            }
+            return multiplex;
+        }
+
+        /**
+         * Lays out the fragments (header, footer) and stamps them directly onto
+         * the pages of the document. Fragments that do not depend on the page
+         * are laid out only once and then used for all pages.
+         * @param  document document to be overlaid
+         * @param  header   markup of the header or {@code null}
+         * @param  footer   markup of the footer or {@code null}
+         * @param  meta     meta data
+         * @param  base     base URI of the resources
+         * @throws Exception
+         *     In case of unexpected errors.
+         */
+        private void overlay(final PDDocument document, final String header, final String footer, final Meta meta, final URI base)
+                throws Exception {
+
+            final var headerStatic = Objects.nonNull(header)
+                    && !this.isPageDependent(header) ? Template.form(document, this.layout(header, Type.HEADER, meta, base)) : null;
+            final var footerStatic = Objects.nonNull(footer)
+                    && !this.isPageDependent(footer) ? Template.form(document, this.layout(footer, Type.FOOTER, meta, base)) : null;
+
+            // With the layout DOCUMENT, the header and footer of all pages are
+            // laid out in one pass, otherwise (or if this is not possible)
+            // separately for each page.
+            final var layout = Layout.DOCUMENT.equals(this.getLayout());
+            try (final var headers = layout && Objects.nonNull(header) && Objects.isNull(headerStatic)
+                            ? this.layout(header, Type.HEADER, meta, base, document.getPages()) : null;
+                    final var footers = layout && Objects.nonNull(footer) && Objects.isNull(footerStatic)
+                            ? this.layout(footer, Type.FOOTER, meta, base, document.getPages()) : null) {
+
+                // With an executor, the page dependent header and footer are
+                // laid out in parallel and stamped in the order of the pages.
+                final var executor = this.getExecutor();
+                final var headerLayouts = Objects.nonNull(executor) && Objects.nonNull(header)
+                        && Objects.isNull(headerStatic) && Objects.isNull(headers)
+                                ? this.layout(header, Type.HEADER, meta, base, document.getNumberOfPages(), executor) : null;
+                final var footerLayouts = Objects.nonNull(executor) && Objects.nonNull(footer)
+                        && Objects.isNull(footerStatic) && Objects.isNull(footers)
+                                ? this.layout(footer, Type.FOOTER, meta, base, document.getNumberOfPages(), executor) : null;
+
+                // The forms of one laid out document share their resources.
+                final var headerLayer = Objects.nonNull(headers) ? new LayerUtility(document) : null;
+                final var footerLayer = Objects.nonNull(footers) ? new LayerUtility(document) : null;
+
+                final var deduplication = new Deduplication();
+
+                try {
+                    var offset = 0;
+                    for (final var page : document.getPages()) {
+                        // Each page uses its own layer, because the shared data
+                        // is read by the parallel layouts at the same time.
+                        final var context = new Meta(meta.locale, new Meta.Layer(meta.data), meta.statics);
+                        context.data.put("page", String.valueOf(offset +1));
+                        if (Objects.nonNull(header))
+                            Template.overlay(document, page, deduplication.share(Objects.nonNull(headerStatic) ? headerStatic
+                                    : Objects.nonNull(headers) ? headerLayer.importPageAsForm(headers, offset)
+                                    : Objects.nonNull(headerLayouts) ? Template.form(document, Template.join(headerLayouts, offset))
+                                    : Template.form(document, this.layout(header, Type.HEADER, context, base))));
+                        if (Objects.nonNull(footer))
+                            Template.overlay(document, page, deduplication.share(Objects.nonNull(footerStatic) ? footerStatic
+                                    : Objects.nonNull(footers) ? footerLayer.importPageAsForm(footers, offset)
+                                    : Objects.nonNull(footerLayouts) ? Template.form(document, Template.join(footerLayouts, offset))
+                                    : Template.form(document, this.layout(footer, Type.FOOTER, context, base))));
+                        offset++;
+                    }
+                } finally {
+                    // In case of errors, layouts that have not yet started are
+                    // no longer necessary.
+                    for (final var layouts : Arrays.asList(headerLayouts, footerLayouts))
+                        if (Objects.nonNull(layouts))
+                            layouts.stream().filter(Objects::nonNull).forEach(future -> future.cancel(true));
+                }
+            }
+        }
 
-                        final var pageTree = document.getPages();
-                        pageTree.insertAfter(page.getPage(0), pageTree.get(offset));
-                        pageTree.remove(offset);
+        /**
+         * Lays out a fragment (header, footer) for each page with an executor.
+         * Each layout uses its own copy of the data with the page, because the
+         * layouts run in parallel.
+         * @param  markup   markup of the fragment
+         * @param  type     type of the fragment
+         * @param  meta     meta data
+         * @param  base     base URI of the resources
+         * @param  pages    number of pages
+         * @param  executor executor of the layouts
+         * @return the layouts of the fragment in the order of the pages
+         */
+        private List<Future<byte[]>> layout(final String markup, final Type type, final Meta meta, final URI base, final int pages,
+                final Executor executor) {
+            final var layouts = new ArrayList<Future<byte[]>>(pages);
+            for (var page = 1; page <= pages; page++) {
+                final var data = new Meta.Layer(meta.data);
+                data.put("page", String.valueOf(page));
+                final var context = new Meta(meta.locale, data, meta.statics);
+                layouts.add(CompletableFuture.supplyAsync(() -> {
+                    try {return this.layout(markup, type, context, base);
+                    } catch (Exception exception) {
+                        throw new CompletionException(exception);
                     }
+                }, executor));
+            }
+            return layouts;
+        }
 
-                    final var output = new ByteArrayOutputStream();
-                    document.save(output);
-                    return output.toByteArray();
+        /**
+         * Waits for the layout of a page and releases it from the layouts.
+         * @param  layouts layouts of the fragment in the order of the pages
+         * @param  offset  offset of the page
+         * @return the laid out fragment as PDF
+         * @throws Exception
+         *     In case of unexpected errors of the layout.
+         */
+        private static byte[] join(final List<Future<byte[]>> layouts, final int offset)
+                throws Exception {
+            try {return layouts.set(offset, null).get();
+            } catch (ExecutionException exception) {
+                if (exception.getCause() instanceof Exception)
+                    throw (Exception)exception.getCause();
+                throw exception;
+            }
+        }
+
+        /**
+         * Imports the first page of a laid out fragment (header, footer) as
+         * form into the document. Resources are copied, so the laid out
+         * fragment is no longer required afterwards.
+         * @param  document target document
+         * @param  fragment laid out fragment as PDF
+         * @return the imported fragment as form
+         * @throws IOException
+         *     In case of unexpected errors.
+         */
+        private static PDFormXObject form(final PDDocument document, final byte[] fragment)
+                throws IOException {
+            try (final var source = Loader.loadPDF(fragment)) {
+                return new LayerUtility(document).importPageAsForm(source, 0);
+            }
+        }
+
+        /**
+         * Stamps a form in the background of a page, means before the existing
+         * content, so that the content and previously stamped forms remain in
+         * the foreground. Like with the overlay of PDFBox, the form is
+         * centered on the page.
+         * @param  document document of the page
+         * @param  page     page to be overlaid
+         * @param  form     form to be stamped
+         * @throws IOException
+         *     In case of unexpected errors.
+         */
+        private static void overlay(final PDDocument document, final PDPage page, final PDFormXObject form)
+                throws IOException {
+            final var box = page.getMediaBox();
+            final var bounds = form.getBBox();
+            try (final var stream = new PDPageContentStream(document, page, PDPageContentStream.AppendMode.PREPEND, true)) {
+                stream.saveGraphicsState();
+                stream.transform(Matrix.getTranslateInstance((box.getWidth() -bounds.getWidth()) /2f,
+                        (box.getHeight() -bounds.getHeight()) /2f));
+                stream.drawForm(form);
+                stream.restoreGraphicsState();
+            }
+        }
+
+        /**
+         * Generates and lays out a fragment (header, footer) for one page.
+         * @param  markup markup of the fragment
+         * @param  type   type of the fragment
+         * @param  meta   meta data with the current page
+         * @param  base   base URI of the resources
+         * @return the laid out fragment as PDF
+         * @throws Exception
+         *     In case of unexpected errors.
+         */
+        private byte[] layout(final String markup, final Type type, final Meta meta, final URI base)
+                throws Exception {
+            final var output = new ByteArrayOutputStream();
+            Template.layout(this.generate(markup, type, meta), base, output);
+            return output.toByteArray();
+        }
+
+        /**
+         * Generates the fragment (header, footer) for all pages and lays them
+         * out together in one pass. The bodies of the generated fragments are
+         * joined into one document, each in a block with the height of a page,
+         * which is the containing block for the positioned elements and cuts
+         * off what does not fit on the page, comparable to the separate
+         * layout, where only the first page is used.
+         * @param  markup markup of the fragment
+         * @param  type   type of the fragment
+         * @param  meta   meta data
+         * @param  base   base URI of the resources
+         * @param  pages  pages of the content
+         * @return the laid out fragment with one page per page, {@code null}
+         *     if the layout does not result in one page per page
+         * @throws Exception
+         *     In case of unexpected errors.
+         */
+        private PDDocument layout(final String markup, final Type type, final Meta meta, final URI base, final PDPageTree pages)
+                throws Exception {
+
+            // All pages must have the same size, because the blocks use the
+            // height of the page.
+            final var size = pages.get(0).getMediaBox();
+            for (final var page : pages) {
+                final var box = page.getMediaBox();
+                if (box.getWidth() != size.getWidth()
+                        || box.getHeight() != size.getHeight())
+                    return null;
+            }
+
+            final var buffer = new StringBuilder();
+            String suffix = null;
+            for (var page = 1; page <= pages.getCount(); page++) {
+                final var context = new Meta(meta.locale, new Meta.Layer(meta.data), meta.statics);
+                context.data.put("page", String.valueOf(page));
+                final var fragment = this.generate(markup, type, context);
+                final var matcher = PATTERN_BODY.matcher(fragment);
+                final var end = fragment.lastIndexOf("</body>");
+                if (!matcher.find()
+                        || end < matcher.end())
+                    return null;
+                if (page == 1) {
+                    buffer.append(fragment, 0, matcher.end());
+                    suffix = fragment.substring(end);
                 }
+                buffer.append("<page-fragment style=\"display:block;position:relative;overflow:hidden;margin:0;padding:0;border:0;")
+                        .append("height:").append((int)Math.floor(size.getHeight())).append("pt;")
+                        .append(page > 1 ? "page-break-before:always;" : "")
+                        .append("\">");
+                buffer.append(fragment, matcher.end(), end);
+                buffer.append("</page-fragment>");
             }
+            buffer.append(suffix);
+
+            final var output = new ByteArrayOutputStream();
+            Template.layout(buffer.toString(), base, output);
+
+            final var document = Loader.loadPDF(output.toByteArray());
+            if (document.getNumberOfPages() == pages.getCount())
+                return document;
+            document.close();
+            return null;
         }
-         
+
         @Override
         public String toString() {
             return this.getSourcePath();
         }
 
+        /**
+         * Process-wide cache of compiled templates. A compiled template
+         * contains the separated fragments (header, content, footer) of the
+         * markup with resolved includes, which do not depend on the meta data.
+         * Only template implementations with {@link Resources} are cached,
+         * identified by class, base path, source path and layout, and the
+         * compiled template is shared by all their instances. The cache uses
+         * LRU eviction with a capacity that can be changed at runtime, a
+         * capacity of 0 disables the cache. If the markup of templates changes
+         * at runtime, the cache must be invalidated.
+         */
+        public static class Cache {
+
+            /** Default capacity of the cache */
+            private static final int CAPACITY = 64;
+
+            /** Capacity of the cache */
+            private static volatile int capacity = CAPACITY;
+
+            /** All caches that follow the capacity and are cleared together */
+            private static final List<Map<?, ?>> caches = new CopyOnWriteArrayList<>();
+
+            /** Compiled templates by key (LRU) */
+            private static final Map<Key, Multiplex> compilations = Cache.create();
+
+            /**
+             * Creates a further process-wide cache (LRU), e.g. for compiled
+             * models of the template implementations, which follows the
+             * capacity and is cleared together with the compiled templates.
+             * @return the created cache
+             */
+            static <K, V> Map<K, V> create() {
+                final Map<K, V> cache = Collections.synchronizedMap(
+                        new LinkedHashMap<>(CAPACITY, 0.75f, true) {
+                            private static final long serialVersionUID = 1L;
+                            @Override
+                            protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+                                return this.size() > Cache.capacity;
+                            }
+                        });
+                Cache.caches.add(cache);
+                return cache;
+            }
+
+            /** Key of a compiled template */
+            private static class Key {
+
+                /** Template implementation */
+                private final Class<?> template;
+
+                /** Base path of the resources */
+                private final String base;
+
+                /** Source path of the markup */
+                private final String source;
+
+                /** Layout of header and footer */
+                private final Layout layout;
+
+                private Key(final Class<?> template, final String base, final String source, final Layout layout) {
+                    this.template = template;
+                    this.base = base;
+                    this.source = source;
+                    this.layout = layout;
+                }
+
+                @Override
+                public boolean equals(final Object object) {
+                    if (!(object instanceof Key))
+                        return false;
+                    final var key = (Key)object;
+                    return this.template.equals(key.template)
+                            && Objects.equals(this.base, key.base)
+                            && Objects.equals(this.source, key.source)
+                            && Objects.equals(this.layout, key.layout);
+                }
+
+                @Override
+                public int hashCode() {
+                    return Objects.hash(this.template, this.base, this.source, this.layout);
+                }
+            }
+
+            private Cache() {
+            }
+
+            /**
+             * Returns the capacity of the cache.
+             * @return the capacity of the cache
+             */
+            public static int getCapacity() {
+                return Cache.capacity;
+            }
+
+            /**
+             * Changes the capacity of the cache. The capacity applies to each
+             * of the process-wide caches (compiled templates and the compiled
+             * models of the template implementations). Entries that exceed the
+             * capacity are removed, a capacity of 0 disables the caches.
+             * @param  capacity capacity of the cache
+             * @throws IllegalArgumentException
+             *     In case of a negative capacity.
+             */
+            public static void setCapacity(final int capacity) {
+                if (capacity < 0)
+                    throw new IllegalArgumentException("Invalid capacity: " + capacity);
+                Cache.capacity = capacity;
+                for (final var cache : Cache.caches) {
+                    synchronized (cache) {
+                        final var iterator = cache.keySet().iterator();
+                        while (cache.size() > capacity) {
+                            iterator.next();
+                            iterator.remove();
+                        }
+                    }
+                }
+            }
+
+            /**
+             * Returns the number of compiled templates in the cache.
+             * @return the number of compiled templates
+             */
+            public static int size() {
+                return Cache.compilations.size();
+            }
+
+            /**
+             * Removes the compiled templates of a template implementation.
+             * Compiled models depend only on the markup and not on the
+             * implementation, they are not affected and, if no longer used,
+             * are displaced by the capacity.
+             * @param template template implementation
+             */
+            public static void invalidate(final Class<? extends Template> template) {
+                synchronized (Cache.compilations) {
+                    Cache.compilations.keySet().removeIf(key -> key.template.equals(template));
+                }
+            }
+
+            /**
+             * Removes all compiled templates and the compiled models of the
+             * template implementations.
+             */
+            public static void clear() {
+                Cache.caches.forEach(Map::clear);
+            }
+        }
+
         /**
          * The template can contain three fragments: header, content, footer.
          * The content can be generated in one step. Because the content is
@@ -966,195 +1602,394 @@ public class Service {
                 return this.footer;
             }
 
-            /**
-             * Creates a list of nodes from a NodeList.
-             * @param  nodes
-             * @return list of nodes
-             */
-            private static List<Node> convertNodeList(final NodeList nodes) {
-                
-                if (Objects.isNull(nodes)
-                        || nodes.getLength() == 0)
-                    return Collections.emptyList();
-                
-                final var list = new ArrayList<Node>();
-                for (var loop = 0; loop < nodes.getLength(); loop++)
-                    list.add(nodes.item(loop));
-                return list;
-            } 
+            /** Style for header and footer, which use the complete page */
+            private static final String STYLE_BORDERLESS = "@page {"
+                    + " margin:0mm!important;"
+                    + " padding:0mm!important;"
+                    + " border:0mm solid!important;}";
+
+            /** Style for header and footer as running elements */
+            private static final String STYLE_RUNNING = "body > header {"
+                    + " position:running(header)!important;}"
+                    + " body > footer {"
+                    + " position:running(footer)!important;}"
+                    + " @page {"
+                    + " @top-center {content:element(header);}"
+                    + " @bottom-center {content:element(footer);}}"
+                    + " page-number::after {content:counter(page);}"
+                    + " page-count::after {content:counter(pages);}";
+
+            /** Factory of the streaming parser per thread */
+            private static final ThreadLocal<XMLInputFactory> FACTORY = ThreadLocal.withInitial(() -> {
+                final var factory = XMLInputFactory.newFactory();
+                factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+                return factory;
+            });
 
             /**
-             * Creates a copy of the passed document.
-             * @param  document
-             * @return a copy of the passed document
-             * @throws ParserConfigurationException
+             * Serializer of the parsed markup into the different outputs. The
+             * output can be changed at element boundaries, without output the
+             * markup is skipped. Empty elements are closed directly, characters
+             * outside ASCII are written unchanged (the markup is handled as
+             * UTF-8) and only line breaks that would be normalized by the
+             * parser are written as character references.
              */
-            private static Document documentClone(final Document document)
-                    throws ParserConfigurationException {
-                final var root = document.getDocumentElement();
-                final var factory = DocumentBuilderFactory.newInstance();
-                final var builder = factory.newDocumentBuilder();
-                final var clone = builder.newDocument();
-                clone.appendChild(clone.importNode(root, true));
-                return clone;
-            }
+            private static class Serializer {
 
-            /**
-             * Fetch a node to a selector.
-             * If the selector matches multiple nodes, it will return the first. 
-             * @param  document
-             * @param  selector
-             * @return the first matching node, otherwise {@code null}
-             * @throws XPathExpressionException
-             */
-            private static Node documentFetchNode(final Document document, final String selector)
-                    throws XPathExpressionException {
-                final var xpath = XPathFactory.newInstance().newXPath();
-                final var expression = xpath.compile(selector);
-                return (Node)expression.evaluate(document, XPathConstants.NODE);
-            }
-            
-            /**
-             * Removes all children in a node.
-             * @param  document
-             * @param  selector
-             * @throws XPathExpressionException
-             */
-            private static void documentEmptyNode(final Document document, final String selector)
-                    throws XPathExpressionException {
-                final var xpath = XPathFactory.newInstance().newXPath();
-                final var expression = xpath.compile(selector);
-                final var nodes = (NodeList)expression.evaluate(document, XPathConstants.NODESET);
-                for (final var node : Multiplex.convertNodeList(nodes)) {
-                    final var childs = node.getChildNodes();
-                    for (final var child : Multiplex.convertNodeList(childs))
-                        node.removeChild(child);
+                /** Current output, {@code null} skips the markup */
+                private StringBuilder output;
+
+                /** Start tag of the current element is still open */
+                private boolean pending;
+
+                /**
+                 * Changes the output. An open start tag is closed before.
+                 * @param output output or {@code null} to skip the markup
+                 */
+                private void output(final StringBuilder output) {
+                    this.close();
+                    this.output = output;
                 }
-            }
 
-            /**
-             * Removes elements from the document which match the selector.
-             * @param  document
-             * @param  selector
-             * @throws XPathExpressionException
-             */
-            private static void documentRemoveNode(final Document document, final String selector)
-                    throws XPathExpressionException {
-                final var xpath = XPathFactory.newInstance().newXPath();
-                final var expression = xpath.compile(selector);
-                final var nodes = (NodeList)expression.evaluate(document, XPathConstants.NODESET);
-                for (var loop = 0; loop < nodes.getLength(); loop++)
-                    nodes.item(loop).getParentNode().removeChild(nodes.item(loop));
+                /** Closes an open start tag. */
+                private void close() {
+                    if (!this.pending)
+                        return;
+                    this.output.append('>');
+                    this.pending = false;
+                }
+
+                private static String name(final QName name) {
+                    if (name.getPrefix().isEmpty())
+                        return name.getLocalPart();
+                    return name.getPrefix() + ":" + name.getLocalPart();
+                }
+
+                private static void escape(final StringBuilder output, final String text, final boolean attribute) {
+                    for (var index = 0; index < text.length(); index++) {
+                        final var code = text.codePointAt(index);
+                        if (Character.isSupplementaryCodePoint(code))
+                            index++;
+                        if (code == '&')
+                            output.append("&amp;");
+                        else if (code == '<')
+                            output.append("&lt;");
+                        else if (code == '>')
+                            output.append("&gt;");
+                        else if (code == '"' && attribute)
+                            output.append("&quot;");
+                        else if (code == '\r'
+                                || (attribute && (code == '\n' || code == '\t')))
+                            output.append("&#").append(code).append(';');
+                        else output.appendCodePoint(code);
+                    }
+                }
+
+                private void start(final XMLStreamReader reader) {
+                    this.close();
+                    if (Objects.isNull(this.output))
+                        return;
+                    this.output.append('<').append(Serializer.name(reader.getName()));
+                    for (var index = 0; index < reader.getAttributeCount(); index++) {
+                        this.output.append(' ').append(Serializer.name(reader.getAttributeName(index))).append("=\"");
+                        Serializer.escape(this.output, reader.getAttributeValue(index), true);
+                        this.output.append('"');
+                    }
+                    this.pending = true;
+                }
+
+                private void end(final XMLStreamReader reader) {
+                    if (Objects.isNull(this.output))
+                        return;
+                    if (this.pending)
+                        this.output.append("/>");
+                    else this.output.append("</").append(Serializer.name(reader.getName())).append('>');
+                    this.pending = false;
+                }
+
+                private void text(final String text) {
+                    this.close();
+                    if (Objects.nonNull(this.output))
+                        Serializer.escape(this.output, text, false);
+                }
+
+                private void comment(final String text) {
+                    this.close();
+                    if (Objects.nonNull(this.output))
+                        this.output.append("<!--").append(text).append("-->");
+                }
+
+                private void instruction(final String target, final String data) {
+                    this.close();
+                    if (Objects.isNull(this.output))
+                        return;
+                    this.output.append("<?").append(target);
+                    if (Objects.nonNull(data)
+                            && !data.isEmpty())
+                        this.output.append(' ').append(data);
+                    this.output.append("?>");
+                }
             }
 
             /**
-             * Adds a borderless style to the document.
-             * This style is needed for the header and footer.
-             * @param  document
-             * @throws XPathExpressionException
+             * Creates a style element for the head.
+             * @param  style content of the style
+             * @return the created style element as markup
              */
-            private static void documentBorderless(final Document document)
-                    throws XPathExpressionException {
-
-                final var style = document.createElement("style");
-                style.setAttribute("type", "text/css");
-                style.setTextContent("@page {"
-                        + " margin:0mm!important;"
-                        + " padding:0mm!important;"
-                        + " border:0mm solid!important;}");
-
-                final var xpath = XPathFactory.newInstance().newXPath();
-                final var expression = xpath.compile("/html/head");
-                final var node = (Node)expression.evaluate(document, XPathConstants.NODE);
-                if (Objects.nonNull(node))
-                    node.appendChild(style);
+            private static String style(final String style) {
+                final var output = new StringBuilder("<style type=\"text/css\">");
+                Serializer.escape(output, style, false);
+                return output.append("</style>").toString();
             }
 
             /**
-             * Creates an XML string based on the document.
-             * @param  document
-             * @return an XML string based on the document
-             * @throws TransformerException
+             * Separates the markup for the fragments: header, content, footer.
+             * @param  markup
+             * @return a multiplex instance with the extracted markup for
+             *     header, content a footer
+             * @throws Exception
              */
-            private static String documentToString(final  Document document)
-                    throws TransformerException {
-                final var factory = TransformerFactory.newInstance();
-                final var transformer = factory.newTransformer();
-                transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-                transformer.setOutputProperty(OutputKeys.INDENT, "no");
-                transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.US_ASCII.name());
-                final var buffer = new ByteArrayOutputStream();
-                transformer.transform(new DOMSource(document), new StreamResult(buffer));
-                return buffer.toString();
+            public static Multiplex demux(final String markup)
+                    throws Exception {
+                return Multiplex.demux(markup, Layout.PAGE);
             }
 
             /**
              * Separates the markup for the fragments: header, content, footer.
+             * The markup is parsed in one pass. The document up to the body,
+             * the children of the body (content, first header, first footer)
+             * and the end of the document are collected separately and then
+             * joined into the fragments. Header and footer get a borderless
+             * style in the head.
+             *
+             * With the layout {@link Layout#RUNNING}, header and footer remain
+             * in the content as running elements at the beginning of the body,
+             * because running elements are only used from the page on which
+             * they occur, and there is only content.
+             *
+             * The markup is parsed as XML without DTD, so named entities are
+             * normalized before.
              * @param  markup
+             * @param  layout
              * @return a multiplex instance with the extracted markup for
              *     header, content a footer
              * @throws Exception
              */
-            public static Multiplex demux(final String markup)
+            public static Multiplex demux(final String markup, final Layout layout)
                     throws Exception {
 
-                final var factory = DocumentBuilderFactory.newInstance();
-                final var builder = factory.newDocumentBuilder();
-                final var document = builder.parse(new ByteArrayInputStream(markup.getBytes()));
-
-                final var multiplex = new Multiplex();
-
-                final var content = Multiplex.documentClone(document);
-                Multiplex.documentRemoveNode(content, "/html/body/header");
-                Multiplex.documentRemoveNode(content, "/html/body/footer");
-                multiplex.content = Multiplex.documentToString(content);
-
-                final var header = Multiplex.documentClone(document);
-                var headerNode = Multiplex.documentFetchNode(document, "/html/body/header");
-                if (Objects.nonNull(headerNode)) {
-                    Multiplex.documentEmptyNode(header, "/html/body");
-                    final var headerBody =  Multiplex.documentFetchNode(header, "/html/body");
-                    headerNode = header.importNode(headerNode, true);
-                    headerBody.appendChild(headerNode);
-                    Multiplex.documentBorderless(header);
-                    multiplex.header = Multiplex.documentToString(header);
-                }
+                final var prefix = new StringBuilder(markup.length());
+                final var content = new StringBuilder(markup.length());
+                final var header = new StringBuilder();
+                final var footer = new StringBuilder();
+                final var suffix = new StringBuilder();
+
+                final var serializer = new Serializer();
+                final var reader = Multiplex.FACTORY.get().createXMLStreamReader(new StringReader(Template.normalizeHtmlEntities(markup)));
+                try {
+                    var html = false;
+                    var body = false;
+                    var depth = 0;
+                    var head = -1;
+                    var headerFound = false;
+                    var footerFound = false;
+                    while (reader.hasNext()) {
+                        final var event = reader.next();
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            final var name = Serializer.name(reader.getName());
+                            depth++;
+                            if (depth == 1) {
+                                html = name.equals("html");
+                                serializer.output(prefix);
+                            } else if (depth == 3 && body) {
+                                if (name.equals("header")) {
+                                    serializer.output(headerFound ? null : header);
+                                    headerFound = true;
+                                } else if (name.equals("footer")) {
+                                    serializer.output(footerFound ? null : footer);
+                                    footerFound = true;
+                                } else serializer.output(content);
+                            }
+                            serializer.start(reader);
+                            if (depth == 2 && html && !body
+                                    && suffix.length() <= 0 && name.equals("body")) {
+                                body = true;
+                                serializer.output(content);
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            final var name = Serializer.name(reader.getName());
+                            if (depth == 2 && body) {
+                                body = false;
+                                serializer.output(suffix);
+                            } else if (depth == 2 && html && !body
+                                    && head < 0 && suffix.length() <= 0 && name.equals("head")) {
+                                serializer.close();
+                                head = prefix.length();
+                            }
+                            serializer.end(reader);
+                            if (depth == 3 && body)
+                                serializer.output(content);
+                            if (--depth <= 0)
+                                break;
+                        } else if (depth <= 0) {
+                            continue;
+                        } else if (event == XMLStreamConstants.CHARACTERS
+                                || event == XMLStreamConstants.SPACE
+                                || event == XMLStreamConstants.CDATA
+                                || event == XMLStreamConstants.ENTITY_REFERENCE) {
+                            serializer.text(reader.getText());
+                        } else if (event == XMLStreamConstants.COMMENT) {
+                            serializer.comment(reader.getText());
+                        } else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+                            serializer.instruction(reader.getPITarget(), reader.getPIData());
+                        }
+                    }
+                    serializer.output(null);
+
+                    final var headStart = head < 0 ? "" : prefix.substring(0, head);
+                    final var headEnd = head < 0 ? prefix.toString() : prefix.substring(head);
 
-                final var footer = Multiplex.documentClone(document);
-                var footerNode = Multiplex.documentFetchNode(document, "/html/body/footer");
-                if (Objects.nonNull(footerNode)) {
-                    footerNode = footerNode.cloneNode(true);
-                    Multiplex.documentEmptyNode(footer, "/html/body");
-                    final var footerBody =  Multiplex.documentFetchNode(footer, "/html/body");
-                    footerNode = footer.importNode(footerNode, true);
-                    footerBody.appendChild(footerNode);
-                    Multiplex.documentBorderless(footer);
-                    multiplex.footer = Multiplex.documentToString(footer);
+                    final var multiplex = new Multiplex();
+                    if (Layout.RUNNING.equals(layout)) {
+                        multiplex.content = headStart
+                                + (head < 0 ? "" : Multiplex.style(STYLE_RUNNING))
+                                + headEnd + header + footer + content + suffix;
+                        return multiplex;
+                    }
+                    multiplex.content = prefix.toString() + content + suffix;
+                    if (headerFound)
+                        multiplex.header = headStart
+                                + (head < 0 ? "" : Multiplex.style(STYLE_BORDERLESS))
+                                + headEnd + header + suffix;
+                    if (footerFound)
+                        multiplex.footer = headStart
+                                + (head < 0 ? "" : Multiplex.style(STYLE_BORDERLESS))
+                                + headEnd + footer + suffix;
+                    return multiplex;
+                } finally {
+                    reader.close();
                 }
-                
-                return multiplex;
             }
         }
 
-        private static class CloseableList<C extends Closeable> extends ArrayList<C> implements Closeable {
+        /**
+         * Shares identical resources (fonts, images, forms, ...) of the forms
+         * of header and footer. Each layout embeds its own resources, so that
+         * without sharing, each page would contain its own copy of the same
+         * fonts and images. Resources are identical if their complete
+         * structure, including the data of the streams, is identical.
+         */
+        private static class Deduplication {
 
-            private CloseableList() {
-                super();
+            /** Shared resources by digest */
+            private final Map<String, COSBase> resources;
+
+            /** Forms already shared (identity) */
+            private final Set<PDFormXObject> forms;
+
+            /** Constructor, creates a new Deduplication object. */
+            private Deduplication() {
+                this.resources = new HashMap<>();
+                this.forms = Collections.newSetFromMap(new IdentityHashMap<>());
+            }
+
+            /**
+             * Replaces the resources of the form with identical resources that
+             * are already used, otherwise the resources are used from now on.
+             * Forms that are used on several pages (page-invariant header and
+             * footer) are shared only once.
+             * @param  form form whose resources are to be shared
+             * @return the passed form
+             * @throws Exception
+             *     In case of unexpected errors.
+             */
+            private PDFormXObject share(final PDFormXObject form)
+                    throws Exception {
+                if (this.forms.add(form))
+                    this.share(form.getCOSObject().getCOSDictionary(COSName.RESOURCES));
+                return form;
             }
 
-            private CloseableList(List<C> entries) {
-                super(entries);
+            private void share(final COSDictionary resources)
+                    throws Exception {
+                if (Objects.isNull(resources))
+                    return;
+                for (final var category : resources.keySet()) {
+                    final var entries = resources.getCOSDictionary(category);
+                    if (Objects.isNull(entries))
+                        continue;
+                    for (final var name : entries.keySet()) {
+                        final var entry = entries.getItem(name);
+                        final var object = entry instanceof COSObject ? ((COSObject)entry).getObject() : entry;
+                        if (!(object instanceof COSDictionary))
+                            continue;
+                        // The resources of nested forms are shared first,
+                        // so that the forms themselves can also be shared.
+                        if (object instanceof COSStream
+                                && COSName.FORM.equals(((COSStream)object).getCOSName(COSName.SUBTYPE)))
+                            this.share(((COSStream)object).getCOSDictionary(COSName.RESOURCES));
+                        final var digest = MessageDigest.getInstance("SHA-256");
+                        Deduplication.digest(object, digest, Collections.newSetFromMap(new IdentityHashMap<>()));
+                        final var shared = this.resources.putIfAbsent(
+                                Base64.getEncoder().encodeToString(digest.digest()), entry);
+                        if (Objects.nonNull(shared))
+                            entries.setItem(name, shared);
+                    }
+                }
             }
 
-            @Override
-            public void close()
+            /**
+             * Updates the digest with the complete structure of an object,
+             * including the raw data of streams. Objects that are already
+             * being processed (cycles) are only marked.
+             * @param  object  object
+             * @param  digest  digest to be updated
+             * @param  objects objects that are being processed
+             * @throws IOException
+             *     In case of unexpected errors.
+             */
+            private static void digest(COSBase object, final MessageDigest digest, final Set<COSBase> objects)
                     throws IOException {
-                for (final C closeable : this)
-                    closeable.close();
+                if (object instanceof COSObject)
+                    object = ((COSObject)object).getObject();
+                if (!(object instanceof COSDictionary)
+                        && !(object instanceof COSArray)) {
+                    final var value = object instanceof COSString
+                            ? "COSString{" + ((COSString)object).toHexString() + "}" : String.valueOf(object);
+                    digest.update(value.getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (!objects.add(object)) {
+                    digest.update((byte)'@');
+                    return;
+                }
+                if (object instanceof COSArray) {
+                    digest.update((byte)'[');
+                    for (final var entry : (COSArray)object) {
+                        Deduplication.digest(entry, digest, objects);
+                        digest.update((byte)',');
+                    }
+                    digest.update((byte)']');
+                } else {
+                    digest.update((byte)'<');
+                    for (final var key : new TreeSet<>(((COSDictionary)object).keySet())) {
+                        digest.update(key.getName().getBytes(StandardCharsets.UTF_8));
+                        digest.update((byte)'=');
+                        Deduplication.digest(((COSDictionary)object).getItem(key), digest, objects);
+                        digest.update((byte)';');
+                    }
+                    digest.update((byte)'>');
+                    if (object instanceof COSStream)
+                        try (final var input = ((COSStream)object).createRawInputStream()) {
+                            final var buffer = new byte[8192];
+                            for (var size = input.read(buffer); size >= 0; size = input.read(buffer))
+                                digest.update(buffer, 0, size);
+                        }
+                }
+                objects.remove(object);
             }
         }
-        
+
         /** TemplateException */
         public static class TemplateException extends ServiceException {
 
@@ -19,20 +19,37 @@ package com.seanox.pdf;
 import com.seanox.pdf.Service.Meta;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /** 
  * Abstract class for implementing of template implementations.
@@ -146,9 +163,6 @@ public abstract class Template extends Service.Template {
     /** Pattern for the validation of list expressions */
     private final static Pattern PATTERN_LIST_EXPRESSION = Pattern.compile("^(.*)\\s*" + TEXT_PATTERN_NUMERIC_INDEX + "$");
     
-    /** Pattern for the detection of line breaks */
-    private final static Pattern PATTERN_LINE_BREAKS = Pattern.compile("(\r\n)|(\n\r)|[\r\n]");
-
     /** Pattern for the detection of ampersand (non entity) */
     private final static Pattern PATTERN_AMPERSAND = Pattern.compile("(?i)&(?!#\\d+;)(?!#x[0-9a-f]+;)(?![a-z]+;)");
     
@@ -158,6 +172,43 @@ public abstract class Template extends Service.Template {
     /** Pattern for splitting keys */
     private final static Pattern PATTERN_KEY_DELIMITER = Pattern.compile("\\.");
     
+    /** Pattern for the detection of placeholders for page and pages */
+    private final static Pattern PATTERN_PAGE_PLACEHOLDER = Pattern.compile("(?i)#\\[\\s*pages?(-exists)?\\s*(\\]|\\[\\[|\\{\\{)");
+
+    /** Pattern for the detection of placeholders of static texts (also invalid) */
+    private final static Pattern PATTERN_STATICS = Pattern.compile("!\\[\\s*(.*?)\\s*\\]");
+
+    /** Pattern for the placeholders of static texts */
+    private final static Pattern PATTERN_STATICS_PLACEHOLDER = Pattern.compile("(?i)!\\[([a-z](?:[\\w-]*\\w)?)\\]");
+
+    /**
+     * Compiled models of the generated markup with bound static texts. The
+     * models are immutable and depend only on the markup and the values of
+     * the static texts used (see {@link Binding}), so they are shared
+     * process-wide by all renderings (threads) and instances of the templates.
+     * Like all caches of the compilation, they follow the capacity of the
+     * {@link Service.Template.Cache} and are removed with it.
+     */
+    private final static Map<List<Object>, Generator.Model> models = Cache.create();
+
+    /**
+     * Markup of the fragments separated at the placeholders of static texts,
+     * which depend only on the markup and are shared process-wide.
+     */
+    private final static Map<String, Binding> bindings = Cache.create();
+    
+    /**
+     * Analyses of the markup of fragments, which depend only on the markup
+     * and are shared process-wide like the compiled models.
+     */
+    private final static Map<String, Analysis> analyses = Cache.create();
+
+    /** Number of structures taken over from the memo when generating */
+    private final LongAdder memoHits = new LongAdder();
+
+    /** Number of structures filled with the memo when generating */
+    private final LongAdder memoMisses = new LongAdder();
+
     /** Naturally sort comparator */
     private static class NaturalComparator implements Comparator<String>, Serializable {
         
@@ -189,6 +240,395 @@ public abstract class Template extends Service.Template {
         }
     }    
     
+    /**
+     * Lazy view of iterable data ({@link Iterable}, {@link Iterator},
+     * {@link Stream}) for the Generator. The entries are only escaped and
+     * prepared when the Generator iterates over them, so that large data can
+     * be fed from a cursor without keeping copies on the heap. Iterables can
+     * be iterated repeatedly, iterators and streams only once, because of
+     * this, they are only available for the first generation (content).
+     * Streams are not closed, this remains the responsibility of the caller.
+     */
+    private static class Lazy implements Iterable<Object> {
+
+        /** Source that can be iterated repeatedly, otherwise {@code null} */
+        private final Iterable<?> iterable;
+
+        /** Source that can only be iterated once, otherwise {@code null} */
+        private Iterator<?> iterator;
+
+        /** Iterator of the iterable already used by {@link #exists()}, otherwise {@code null} */
+        private Iterator<?> pending;
+
+        /**
+         * Constructor, creates a new Lazy object.
+         * @param source {@link Iterable}, {@link Iterator} or {@link Stream}
+         */
+        private Lazy(final Object source) {
+            if (source instanceof Lazy) {
+                final var lazy = (Lazy)source;
+                this.iterable = lazy.iterable;
+                if (Objects.isNull(lazy.iterable))
+                    this.iterator = lazy.iterator();
+            } else if (source instanceof Iterable) {
+                this.iterable = (Iterable<?>)source;
+            } else {
+                this.iterable = null;
+                if (source instanceof Stream)
+                    this.iterator = ((Stream<?>)source).iterator();
+                else this.iterator = (Iterator<?>)source;
+            }
+        }
+
+        /**
+         * Checks whether the object is a lazy data source. Collections are not
+         * lazy, they are already completely available.
+         * @param  object object to check
+         * @return {@code true} if the object is a lazy data source
+         */
+        private static boolean isLazy(final Object object) {
+            return (object instanceof Iterable
+                            && !(object instanceof Collection))
+                    || object instanceof Iterator
+                    || object instanceof Stream;
+        }
+
+        /**
+         * Creates a lazy view that filters and transforms the entries.
+         * @param  filter    filter of the entries
+         * @param  transform transformation of the entries
+         * @return the lazy view with filter and transformation
+         */
+        private Lazy map(final Predicate<Object> filter, final Function<Object, Object> transform) {
+            if (Objects.nonNull(this.iterable)) {
+                final var iterable = this.iterable;
+                return new Lazy((Iterable<Object>)() ->
+                        new Transformation(iterable.iterator(), filter, transform));
+            }
+            return new Lazy(new Transformation(this.iterator(), filter, transform));
+        }
+
+        /**
+         * Checks whether the data contains entries. The next entry is
+         * determined, but not consumed. For iterables, the iterator used for
+         * this is kept and returned by the next call of {@link #iterator()},
+         * so that the source is not opened an additional time.
+         * @return {@code true} if the data contains entries
+         */
+        private synchronized boolean exists() {
+            if (Objects.isNull(this.iterable))
+                return this.iterator.hasNext();
+            if (Objects.isNull(this.pending))
+                this.pending = this.iterable.iterator();
+            return this.pending.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Iterator<Object> iterator() {
+            if (Objects.nonNull(this.iterable)) {
+                final var iterator = this.pending;
+                this.pending = null;
+                if (Objects.nonNull(iterator))
+                    return (Iterator<Object>)iterator;
+                return (Iterator<Object>)this.iterable.iterator();
+            }
+            final var iterator = this.iterator;
+            this.iterator = Collections.emptyIterator();
+            return (Iterator<Object>)iterator;
+        }
+
+        /** Iterator that filters and transforms the entries of a source */
+        private static class Transformation implements Iterator<Object> {
+
+            private final Iterator<?> source;
+
+            private final Predicate<Object> filter;
+
+            private final Function<Object, Object> transform;
+
+            private Object next;
+
+            private boolean pending;
+
+            private Transformation(final Iterator<?> source, final Predicate<Object> filter, final Function<Object, Object> transform) {
+                this.source = source;
+                this.filter = filter;
+                this.transform = transform;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!this.pending
+                        && this.source.hasNext()) {
+                    final var entry = this.source.next();
+                    if (!this.filter.test(entry))
+                        continue;
+                    this.next = this.transform.apply(entry);
+                    this.pending = true;
+                }
+                return this.pending;
+            }
+
+            @Override
+            public Object next() {
+                if (!this.hasNext())
+                    throw new NoSuchElementException();
+                final var next = this.next;
+                this.next = null;
+                this.pending = false;
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Lazy view of the data and static texts for the Generator. The values
+     * are only escaped and prepared when the Generator accesses them, and the
+     * exists-keys are determined virtually on access. So the effort and memory of a rendering
+     * depend on the keys used by the template and not on the size of the data.
+     * Prepared values are retained, because the data is used several times
+     * (content, header, footer). Maps that occur several times are prepared
+     * once and then shared, for this purpose the already prepared maps are
+     * passed. The keys ({@link #keySet()}) contain only the normalized keys of
+     * the data, the exists-keys are available only by access.
+     */
+    private static class View extends AbstractMap<String, Object> {
+
+        /** Suffix of the exists-keys */
+        private static final String SUFFIX_EXISTS = "-exists";
+
+        /** Data of the view */
+        private final Map<?, ?> data;
+
+        /** Already prepared maps (identity) or {@code null} */
+        private final Map<Object, Object> prepared;
+
+        /** Escaping of the text values */
+        private final Function<Object, String> escape;
+
+        /** Already prepared values */
+        private final Map<String, Value> values;
+
+        /** Normalized keys with the keys of the data, {@code null} if the keys are already normalized */
+        private Map<String, Object> keys;
+
+        /** Indicator whether the keys have been determined */
+        private boolean indexed;
+
+        /**
+         * Constructor, creates a new View over the data.
+         * @param data     data of the view or {@code null}
+         * @param prepared already prepared maps (identity) or {@code null}
+         */
+        private View(final Map<?, ?> data, final Map<Object, Object> prepared) {
+            this(data, prepared, Template::escapeHtml);
+        }
+
+        /**
+         * Constructor, creates a new View over the data.
+         * @param data     data of the view or {@code null}
+         * @param prepared already prepared maps (identity) or {@code null}
+         * @param escape   escaping of the text values
+         */
+        private View(final Map<?, ?> data, final Map<Object, Object> prepared, final Function<Object, String> escape) {
+            this.data = Objects.nonNull(data) ? data : Collections.emptyMap();
+            this.prepared = prepared;
+            this.escape = escape;
+            this.values = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * Determines the normalized keys of the data once. If all keys are
+         * already normalized, no index is created and the data is used directly.
+         * @return the normalized keys with the keys of the data, otherwise
+         *     {@code null} if the keys are already normalized
+         */
+        private synchronized Map<String, Object> keys() {
+            if (this.indexed)
+                return this.keys;
+            this.indexed = true;
+            if (this.data.keySet().stream().allMatch(key -> key instanceof String
+                    && key.equals(Template.normalizeKey((String)key))))
+                return this.keys;
+            this.keys = new HashMap<>();
+            this.data.keySet().stream()
+                    .filter(Objects::nonNull)
+                    .forEach(key -> this.keys.put(Template.normalizeKey(String.valueOf(key)), key));
+            return this.keys;
+        }
+
+        /**
+         * Prepares the value of a normalized key of the data.
+         * @param  key normalized key
+         * @return the prepared value, otherwise {@link Value#ABSENT}
+         */
+        @SuppressWarnings("rawtypes")
+        private Value prepare(final String key) {
+            final var keys = this.keys();
+            final Object source = Objects.isNull(keys) ? key : keys.get(key);
+            if (Objects.isNull(source)
+                    || !this.data.containsKey(source))
+                return Value.ABSENT;
+            final var object = this.data.get(source);
+            if (Objects.isNull(object))
+                return new Value("", false);
+            if (Lazy.isLazy(object)) {
+                // Lazy data is prepared like a collection, but only when the
+                // Generator iterates over it. Entries are not shared, so that
+                // consumed entries are not retained. Whether entries exist is
+                // only determined when the exists-key is used, as long as the
+                // entries have not been consumed.
+                return new Value(new Lazy(object).map(
+                        entry -> Objects.nonNull(entry)
+                                && (!(entry instanceof Map) || !((Map)entry).isEmpty()),
+                        entry -> entry instanceof Map ? new View((Map)entry, null) : this.escape.apply(entry)));
+            }
+            if (object instanceof Collection) {
+                // Maps are prepared as views, other entries as escaped text,
+                // the same as for lazy data. Empty maps are ignored.
+                final var collection = (Collection<?>)object;
+                final var value = new ArrayList<Object>(collection.size());
+                for (final var entry : collection) {
+                    if (Objects.isNull(entry))
+                        continue;
+                    if (!(entry instanceof Map))
+                        value.add(this.escape.apply(entry));
+                    else if (!((Map)entry).isEmpty())
+                        value.add(this.view((Map)entry));
+                }
+                return new Value(value, !collection.isEmpty());
+            }
+            if (object instanceof Map)
+                return new Value(this.view((Map)object), !((Map)object).isEmpty());
+            final var value = this.escape.apply(object);
+            return new Value(value, !value.trim().isEmpty());
+        }
+
+        /**
+         * Returns the shared view of a contained map.
+         * @param  map contained map
+         * @return the view of the map
+         */
+        private View view(final Map<?, ?> map) {
+            if (Objects.isNull(this.prepared))
+                return new View(map, null);
+            synchronized (this.prepared) {
+                return (View)this.prepared.computeIfAbsent(map, entry -> new View(map, this.prepared));
+            }
+        }
+
+        /**
+         * Resolves a normalized key, including the virtual exists-keys.
+         * @param  key normalized key
+         * @return the prepared value, otherwise {@link Value#ABSENT}
+         */
+        private Value resolve(final String key) {
+            final var value = this.values.computeIfAbsent(key, this::prepare);
+            if (value != Value.ABSENT
+                    || !key.endsWith(SUFFIX_EXISTS))
+                return value;
+            final var origin = key.substring(0, key.length() -SUFFIX_EXISTS.length()).trim();
+            return this.values.computeIfAbsent(origin, this::prepare).exists() ? Value.EXISTS : Value.ABSENT;
+        }
+
+        /**
+         * Checks whether the data defines a normalized key, for exists-keys
+         * the key of the origin, also if the value is empty.
+         * @param  key normalized key
+         * @return {@code true} if the data defines the key
+         */
+        private boolean defines(final String key) {
+            if (this.values.computeIfAbsent(key, this::prepare) != Value.ABSENT)
+                return true;
+            if (!key.endsWith(SUFFIX_EXISTS))
+                return false;
+            final var origin = key.substring(0, key.length() -SUFFIX_EXISTS.length()).trim();
+            return this.values.computeIfAbsent(origin, this::prepare) != Value.ABSENT;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof String
+                    && this.resolve((String)key) != Value.ABSENT;
+        }
+
+        @Override
+        public Object get(final Object key) {
+            if (!(key instanceof String))
+                return null;
+            return this.resolve((String)key).value;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return this.data.isEmpty();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> keySet() {
+            final var keys = this.keys();
+            if (Objects.isNull(keys))
+                return Collections.unmodifiableSet((Set<String>)this.data.keySet());
+            return Collections.unmodifiableSet(keys.keySet());
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            // Complete iteration prepares all values, which is not used by
+            // the Generator, but is supported for the contract of Map.
+            final var entries = new HashMap<String, Object>();
+            for (final var key : this.keySet()) {
+                final var value = this.resolve(key);
+                entries.put(key, value.value);
+                if (value.exists())
+                    entries.putIfAbsent(key + SUFFIX_EXISTS, Value.EXISTS.value);
+            }
+            return Collections.unmodifiableSet(entries.entrySet());
+        }
+
+        /** Prepared value with the indicator whether the value exists */
+        private static class Value {
+
+            /** Value of keys that are not contained */
+            private static final Value ABSENT = new Value(null, false);
+
+            /** Value of the exists-keys */
+            private static final Value EXISTS = new Value("exists", false);
+
+            private final Object value;
+
+            /** Indicator whether the value exists, {@code null} if not yet determined */
+            private Boolean exists;
+
+            private Value(final Object value, final boolean exists) {
+                this.value = value;
+                this.exists = exists;
+            }
+
+            /**
+             * Constructor, creates a new Value for lazy data, whether entries
+             * exist is determined with the first request.
+             * @param value lazy data
+             */
+            private Value(final Lazy value) {
+                this.value = value;
+            }
+
+            /**
+             * Checks whether the value exists, for lazy data this is
+             * determined once with the first request.
+             * @return {@code true} if the value exists
+             */
+            private synchronized boolean exists() {
+                if (Objects.isNull(this.exists))
+                    this.exists = ((Lazy)this.value).exists();
+                return this.exists;
+            }
+        }
+    }
+
     /**
      * Exception object for syntactic and structural errors in the properties
      * file of the preview data.
@@ -206,6 +646,385 @@ public abstract class Template extends Service.Template {
         }
     }
     
+    /**
+     * Markup of a fragment separated at the placeholders of static texts. The
+     * markup is scanned only once, the static texts are then bound in one
+     * pass. The compiled models are shared per markup and values of the static
+     * texts used, so that repeated generations (header and footer per page,
+     * renderings with the same static texts) neither bind nor compile again.
+     */
+    private static class Binding {
+
+        /** Markup of the fragment, key of the models together with the values */
+        private final String markup;
+
+        /** Literals between the placeholders (one more than the keys) */
+        private final String[] literals;
+
+        /** Placeholders as contained in the markup */
+        private final String[] tokens;
+
+        /** Normalized keys of the placeholders, {@code null} for invalid */
+        private final String[] keys;
+
+        /** Index of the first placeholder with the same token */
+        private final int[] origins;
+
+        /**
+         * Constructor, creates a new Binding by scanning the markup.
+         * @param markup markup of the fragment
+         */
+        private Binding(final String markup) {
+            this.markup = markup;
+            final var literals = new ArrayList<String>();
+            final var tokens = new ArrayList<String>();
+            final var keys = new ArrayList<String>();
+            final var matcher = PATTERN_STATICS.matcher(markup);
+            var offset = 0;
+            while (matcher.find()) {
+                literals.add(markup.substring(offset, matcher.start()));
+                tokens.add(matcher.group(0));
+                if (PATTERN_STATICS_PLACEHOLDER.matcher(matcher.group(0)).matches())
+                    keys.add(matcher.group(1).toLowerCase());
+                else keys.add(null);
+                offset = matcher.end();
+            }
+            literals.add(markup.substring(offset));
+            this.literals = literals.toArray(new String[0]);
+            this.tokens = tokens.toArray(new String[0]);
+            this.keys = keys.toArray(new String[0]);
+            this.origins = new int[this.tokens.length];
+            for (var index = 0; index < this.tokens.length; index++)
+                this.origins[index] = tokens.indexOf(this.tokens[index]);
+        }
+
+        /**
+         * Returns the shared binding of the markup of a fragment.
+         * @param  markup markup of the fragment
+         * @return the binding of the markup
+         */
+        private static Binding of(final String markup) {
+            var binding = Template.bindings.get(markup);
+            if (Objects.isNull(binding)) {
+                binding = new Binding(markup);
+                Template.bindings.put(markup, binding);
+            }
+            return binding;
+        }
+
+        /**
+         * Binds the static texts and returns the compiled model. Static texts
+         * without value are removed. Placeholders contained in the values are
+         * masked, because they cannot be inserted subsequently.
+         * @param  statics static texts
+         * @return the compiled model with the bound static texts
+         */
+        private Generator.Model bind(final Map<String, String> statics) {
+            final var values = new Object[this.keys.length +1];
+            values[0] = this.markup;
+            for (var index = 0; index < this.keys.length; index++) {
+                String value = null;
+                if (Objects.nonNull(this.keys[index])
+                        && Objects.nonNull(statics))
+                    value = statics.get(this.keys[index]);
+                values[index +1] = Objects.nonNull(value) ? value : "";
+            }
+            final var key = Arrays.asList(values);
+            var model = Template.models.get(key);
+            if (Objects.isNull(model)) {
+                final var markup = new StringBuilder(this.literals[0]);
+                for (var index = 0; index < this.keys.length; index++)
+                    markup.append(this.resolve(values, index)).append(this.literals[index +1]);
+                model = Generator.compile(markup.toString().getBytes(StandardCharsets.UTF_8));
+                Template.models.put(key, model);
+            }
+            return model;
+        }
+
+        /**
+         * Resolves the value of a placeholder. The placeholders are replaced
+         * one after the other, so the values can also contain placeholders of
+         * static texts, which are then replaced by the following placeholders
+         * in the markup. Placeholders of the generator are masked.
+         * @param  values values of the placeholders (from index 1)
+         * @param  index  index of the placeholder
+         * @return the resolved value
+         */
+        private String resolve(final Object[] values, final int index) {
+            final var origin = this.origins[index];
+            var value = ((String)values[origin +1]).replace("#[", "#[0x23][");
+            for (var next = origin +1; next < this.tokens.length && value.contains("!["); next++)
+                value = value.replace(this.tokens[next], ((String)values[next +1]).replace("#[", "#[0x23]["));
+            return value;
+        }
+    }
+
+    /**
+     * Process-wide registry of static texts per locale (bundles), e.g. from a
+     * {@link ResourceBundle} or properties. The static texts are prepared
+     * (escaped, markup detected, exists-keys) once when registering, so that
+     * renderings only have to specify the locale. Because the prepared values
+     * do not change, the models with the bound static texts are also reused
+     * (see {@link Binding}). Static texts in the meta-object override the
+     * registered ones per key, also with empty values, all other keys are
+     * taken from the registered ones. For a locale, the bundle of the locale
+     * is used first, then of the language and finally of {@link Locale#ROOT}.
+     */
+    public static class Statics {
+
+        /** Prepared static texts per locale */
+        private static final Map<Locale, Map<String, String>> bundles = new ConcurrentHashMap<>();
+
+        private Statics() {
+        }
+
+        /**
+         * Registers the static texts for a locale, {@code null} is used as
+         * {@link Locale#ROOT}. Already registered static texts of the locale
+         * are replaced.
+         * @param locale  locale
+         * @param statics static texts
+         */
+        public static void register(final Locale locale, final Map<String, String> statics) {
+            final var view = new View(statics, null, Template::escapeStatics);
+            final var prepared = new HashMap<String, String>();
+            view.entrySet().forEach(entry -> prepared.put(entry.getKey(), String.valueOf(entry.getValue())));
+            Statics.bundles.put(Objects.nonNull(locale) ? locale : Locale.ROOT, Collections.unmodifiableMap(prepared));
+        }
+
+        /**
+         * Registers the static texts of a {@link ResourceBundle} for the
+         * locale of the bundle.
+         * @param bundle resource bundle with the static texts
+         */
+        public static void register(final ResourceBundle bundle) {
+            final var statics = new HashMap<String, String>();
+            bundle.keySet().forEach(key -> statics.put(key, String.valueOf(bundle.getObject(key))));
+            Statics.register(bundle.getLocale(), statics);
+        }
+
+        /**
+         * Registers the static texts of properties for a locale, {@code null}
+         * is used as {@link Locale#ROOT}.
+         * @param locale     locale
+         * @param properties properties with the static texts
+         */
+        public static void register(final Locale locale, final Properties properties) {
+            final var statics = new HashMap<String, String>();
+            properties.stringPropertyNames().forEach(key -> statics.put(key, properties.getProperty(key)));
+            Statics.register(locale, statics);
+        }
+
+        /**
+         * Removes the static texts registered for a locale.
+         * @param locale locale, {@code null} is used as {@link Locale#ROOT}
+         */
+        public static void unregister(final Locale locale) {
+            Statics.bundles.remove(Objects.nonNull(locale) ? locale : Locale.ROOT);
+        }
+
+        /** Removes all registered static texts. */
+        public static void clear() {
+            Statics.bundles.clear();
+        }
+
+        /**
+         * Returns the prepared static texts for a locale, with fallback to
+         * the language and {@link Locale#ROOT}.
+         * @param  locale locale or {@code null}
+         * @return the prepared static texts, otherwise {@code null}
+         */
+        private static Map<String, String> lookup(final Locale locale) {
+            if (Objects.nonNull(locale)) {
+                var statics = Statics.bundles.get(locale);
+                if (Objects.isNull(statics))
+                    statics = Statics.bundles.get(new Locale(locale.getLanguage()));
+                if (Objects.nonNull(statics))
+                    return statics;
+            }
+            return Statics.bundles.get(Locale.ROOT);
+        }
+
+        /**
+         * Static texts of the meta-object over the registered ones, the keys
+         * defined by the meta-object override the registered ones including
+         * their exists-keys.
+         */
+        private static class Overlay extends AbstractMap<String, Object> {
+
+            /** Static texts of the meta-object */
+            private final View view;
+
+            /** Registered static texts */
+            private final Map<String, String> bundle;
+
+            private Overlay(final View view, final Map<String, String> bundle) {
+                this.view = view;
+                this.bundle = bundle;
+            }
+
+            @Override
+            public boolean containsKey(final Object key) {
+                if (!(key instanceof String))
+                    return false;
+                if (this.view.defines((String)key))
+                    return this.view.containsKey(key);
+                return this.bundle.containsKey(key);
+            }
+
+            @Override
+            public Object get(final Object key) {
+                if (!(key instanceof String))
+                    return null;
+                if (this.view.defines((String)key))
+                    return this.view.get(key);
+                return this.bundle.get(key);
+            }
+
+            @Override
+            public Set<Entry<String, Object>> entrySet() {
+                final var entries = new HashMap<String, Object>(this.bundle);
+                entries.keySet().removeIf(this.view::defines);
+                this.view.entrySet().forEach(entry -> entries.put(entry.getKey(), entry.getValue()));
+                return Collections.unmodifiableSet(entries.entrySet());
+            }
+        }
+    }
+
+    /**
+     * Result of the static analysis of the markup of a template with the
+     * paths of all placeholders, the structures and the static texts used.
+     * Paths use the normalized keys (lower case) and are separated by dots
+     * for nested structures, e.g. {@code rows.name}. Exists-placeholders are
+     * included as they are used in the markup, e.g. {@code rows-exists}.
+     * The analysis can be used to validate data in advance and to reduce the
+     * data to what the template uses.
+     */
+    public static class Analysis {
+
+        /** Paths of all placeholders */
+        private final Set<String> paths;
+
+        /** Paths of the placeholders of structures */
+        private final Set<String> scopes;
+
+        /** Keys of the static texts */
+        private final Set<String> statics;
+
+        /**
+         * Constructor, creates a new Analysis object.
+         * @param paths   paths of all placeholders
+         * @param scopes  paths of the placeholders of structures
+         * @param statics keys of the static texts
+         */
+        private Analysis(final Collection<String> paths, final Collection<String> scopes, final Collection<String> statics) {
+            this.paths = Collections.unmodifiableSet(new TreeSet<>(paths));
+            this.scopes = Collections.unmodifiableSet(new TreeSet<>(scopes));
+            this.statics = Collections.unmodifiableSet(new TreeSet<>(statics));
+        }
+
+        /**
+         * Analyzes the markup of a fragment. Compiled analyses are shared
+         * process-wide, comparable to the compiled models.
+         * @param  markup markup of the fragment
+         * @return the analysis of the markup
+         */
+        private static Analysis analyze(final String markup) {
+            if (Objects.isNull(markup))
+                return new Analysis(List.of(), List.of(), List.of());
+            var analysis = Template.analyses.get(markup);
+            if (Objects.nonNull(analysis))
+                return analysis;
+            final var paths = new ArrayList<String>();
+            final var scopes = new ArrayList<String>();
+            Generator.compile(markup.getBytes(StandardCharsets.UTF_8)).analyze(paths, scopes);
+            final var statics = new ArrayList<String>();
+            final var matcher = PATTERN_STATICS_PLACEHOLDER.matcher(markup);
+            while (matcher.find())
+                statics.add(Template.normalizeKey(matcher.group(1)));
+            analysis = new Analysis(paths, scopes, statics);
+            Template.analyses.put(markup, analysis);
+            return analysis;
+        }
+
+        /**
+         * Combines the analyses of several fragments.
+         * @param  analyses analyses of the fragments
+         * @return the combined analysis
+         */
+        private static Analysis merge(final Analysis... analyses) {
+            return new Analysis(
+                    Arrays.stream(analyses).flatMap(analysis -> analysis.paths.stream()).collect(Collectors.toList()),
+                    Arrays.stream(analyses).flatMap(analysis -> analysis.scopes.stream()).collect(Collectors.toList()),
+                    Arrays.stream(analyses).flatMap(analysis -> analysis.statics.stream()).collect(Collectors.toList()));
+        }
+
+        /**
+         * Returns the paths of all placeholders, including the structures.
+         * @return the paths of all placeholders
+         */
+        public Set<String> getPaths() {
+            return this.paths;
+        }
+
+        /**
+         * Returns the paths of the placeholders that are used as structures.
+         * @return the paths of the structures
+         */
+        public Set<String> getScopes() {
+            return this.scopes;
+        }
+
+        /**
+         * Returns the keys of the static texts.
+         * @return the keys of the static texts
+         */
+        public Set<String> getStatics() {
+            return this.statics;
+        }
+
+        /**
+         * Reduces a key set to the keys used at the top level, the keys of
+         * exists-placeholders are reduced to the key of the value.
+         * @param  keys paths or keys
+         * @return the keys used at the top level
+         */
+        private static Set<String> reduce(final Set<String> keys) {
+            return keys.stream()
+                    .map(key -> key.contains(".") ? key.substring(0, key.indexOf('.')) : key)
+                    .map(key -> key.endsWith("-exists") ? key.substring(0, key.length() -7) : key)
+                    .collect(Collectors.toSet());
+        }
+
+        /**
+         * Reduces the data and the static texts to the keys that are used by
+         * the template at the top level, directly or via exists-placeholders.
+         * The values are taken over without copying and the passed meta-object
+         * is not changed.
+         * @param  meta meta-object to be reduced
+         * @return a new meta-object with the reduced data and static texts
+         */
+        public Meta prune(final Meta meta) {
+            if (Objects.isNull(meta))
+                return new Meta();
+            return new Meta(meta.getLocale(),
+                    Analysis.prune(meta.getData(), Analysis.reduce(this.paths)),
+                    Analysis.prune(meta.getStatics(), Analysis.reduce(this.statics)));
+        }
+
+        private static <T> Map<String, T> prune(final Map<String, T> map, final Set<String> keys) {
+            if (Objects.isNull(map))
+                return null;
+            final var result = new HashMap<String, T>();
+            map.forEach((key, value) -> {
+                if (Objects.nonNull(key)
+                        && keys.contains(Template.normalizeKey(key)))
+                    result.put(key, value);
+            });
+            return result;
+        }
+    }
+
     /** 
      * CharSequence for Markup.
      * {@link Markup} works like a {@link String}, but no HTML symbols are escaped.
@@ -406,7 +1225,7 @@ public abstract class Template extends Service.Template {
     }
     
     /**
-     * Escapes characters greater ASCII 0x7F, markup symbols and line breaks.
+     * Escapes markup symbols and line breaks.
      * The value {@code null} is used as a space.
      * @param  text text to escape
      * @return the possibly escaped text
@@ -416,10 +1235,11 @@ public abstract class Template extends Service.Template {
     }
 
     /**
-     * Escapes characters greater ASCII 0x7F, markup symbols and line breaks.
-     * The <li>markup</li> option specifies that the content contains markup.
-     * In this case, only the ASCII characters greater 0x7F are escaped.
-     * The value {@code null} is used as a space.
+     * Escapes markup symbols and line breaks. Characters outside of ASCII are
+     * not escaped, the markup is processed as UTF-8 from the generator up to
+     * the layout engine. The <li>markup</li> option specifies that the content
+     * contains markup. In this case, only ampersands that do not belong to an
+     * entity are escaped. The value {@code null} is used as a space.
      * @param  text   text to escape
      * @param  markup {@code true} specifies that the content contains markup
      * @return the possibly escaped text
@@ -427,137 +1247,69 @@ public abstract class Template extends Service.Template {
     static String escapeHtml(final String text, final boolean markup) {
         if (Objects.isNull(text))
             return "";
-        final var buffer = new StringBuilder();
-        for (final var digit : text.toCharArray()) {
-            if (digit > 0x7F)
-                buffer.append("&#").append((int)digit).append(";");
-            else if (!markup) {
-                if (digit == '&')
-                    buffer.append("&amp;");
-                else if (digit == '<')
-                    buffer.append("&lt;");
-                else if (digit == '>')
-                    buffer.append("&gt;");
-                else buffer.append(digit);
-            } else buffer.append(digit);
-        }
-        final var result = PATTERN_AMPERSAND.matcher(buffer.toString()).replaceAll("&amp;");
         if (markup)
-            return result;
-        return PATTERN_LINE_BREAKS.matcher(result).replaceAll("<br/>");
+            return PATTERN_AMPERSAND.matcher(text).replaceAll("&amp;");
+        StringBuilder buffer = null;
+        for (var index = 0; index < text.length(); index++) {
+            final var digit = text.charAt(index);
+            final String escape;
+            if (digit == '&')
+                escape = "&amp;";
+            else if (digit == '<')
+                escape = "&lt;";
+            else if (digit == '>')
+                escape = "&gt;";
+            else if (digit == '\r' || digit == '\n')
+                escape = "<br/>";
+            else escape = null;
+            if (Objects.isNull(escape)) {
+                if (Objects.nonNull(buffer))
+                    buffer.append(digit);
+                continue;
+            }
+            if (Objects.isNull(buffer))
+                buffer = new StringBuilder(text.length() +16).append(text, 0, index);
+            buffer.append(escape);
+            // line breaks \r\n and \n\r are combined into one
+            if ((digit == '\r' || digit == '\n')
+                    && index +1 < text.length()
+                    && text.charAt(index +1) == (digit == '\r' ? '\n' : '\r'))
+                index++;
+        }
+        return Objects.isNull(buffer) ? text : buffer.toString();
     }
     
     /**
-     * Escapes the text values of/in a Object.
-     * @param  object object to escape
-     * @return the escaped object
-     */   
-    @SuppressWarnings({"rawtypes", "unchecked"})
-    private static Object escapeHtml(final Object object) {
+     * Escapes a value as text, {@link Markup} is escaped as content with
+     * markup. The value {@code null} is used as a space.
+     * @param  object value to escape
+     * @return the escaped text
+     */
+    private static String escapeHtml(final Object object) {
         if (Objects.isNull(object))
             return "";
-        if (object instanceof Collection)
-            return Template.escapeHtml((Collection)object);
-        if (object instanceof Map)
-            return Template.escapeHtml((Map)object);
         return Template.escapeHtml(String.valueOf(object), object instanceof Markup);
-    } 
-
-    /**
-     * Escapes the text values in a Collection.
-     * @param  collection collection with text values to escape
-     * @return the Collection with escaped text values
-     */
-    private static Collection<Map<String, Object>> escapeHtml(final Collection<Map<String, Object>> collection) {
-        if (Objects.isNull(collection))
-            return new ArrayList<>();
-        try {return collection.stream().map(Template::escapeHtml).collect(Collectors.toList());
-        } catch (ClassCastException exception) {
-            return new ArrayList<>();
-        }
     }
-    
+
     /**
-     * Escapes the text values in a Map.
-     * @param  map map with text values to escape
-     * @return the Map with escaped text values
+     * Escapes a static text, static texts that contain markup are not escaped.
+     * @param  text static text to escape
+     * @return the escaped static text
      */
-    private static Map<String, Object> escapeHtml(final Map<String, Object> map) {
-        if (Objects.isNull(map))
-            return new HashMap<>();
-        try {
-            return map.entrySet().stream().collect(Collectors.toMap(
-                    entry -> entry.getKey(),
-                    entry -> Template.escapeHtml(entry.getValue())
-            ));
-        } catch (ClassCastException exception) {
-            return new HashMap<>();
-        }
+    private static String escapeStatics(final Object text) {
+        final var value = String.valueOf(text);
+        return Template.escapeHtml(value, PATTERN_MARKUP_DETECTION.matcher(value).find());
     }
-    
+
     /**
-     * Extends the contained maps by an exists-key for each key.
-     * This hack is necessary because CSS :empty has no effect in OpenHtmlToPdf
-     * and empty elements cannot be smoothed out by CSS. Therefore, the
-     * inverted exists solution.
-     * @param  collection
-     * @return collection with additional exists keys
+     * Normalizes a key like the Generator, means lower case and smoothing.
+     * @param  key key to normalize
+     * @return the normalized key
      */
-    private static Collection<Map<String, Object>> indicateEmpty(final Collection<Map<String, Object>> collection) {
-        if (Objects.isNull(collection))
-            return new ArrayList<>();
-        final var result = new ArrayList<Map<String, Object>>();
-        collection.forEach(entry -> {
-            if (entry.isEmpty())
-                return;
-            result.add(Template.indicateEmpty(entry));
-        });
-        return result;
+    private static String normalizeKey(final String key) {
+        return key.toLowerCase().trim();
     }
     
-    /**
-     * Extends the maps by an exists-key for each key, whose value is not empty,
-     * not blank and not {@code null} . The value is then {@code exists}.
-     * This hack is necessary because CSS :empty has no effect in OpenHtmlToPdf
-     * and empty elements cannot be smoothed out by CSS. Therefore, the
-     * inverted exists solution.
-     * @param  map
-     * @return collection with additional exists keys
-     */    
-    @SuppressWarnings({"rawtypes", "unchecked"})
-    private static <T> Map<String, T> indicateEmpty(final Map<String, T> map) {
-        if (Objects.isNull(map))
-            return new HashMap<>();
-        final var result = new HashMap<String, T>();
-        map.entrySet().forEach(entry -> {
-            if (Objects.isNull(entry.getValue()))
-                return;
-            if (entry.getValue() instanceof Collection) {
-                final var value = (Collection)entry.getValue();
-                if (!value.isEmpty())
-                    result.put(entry.getKey() + "-exists", (T)"exists");
-                try {result.put(entry.getKey(), (T)Template.indicateEmpty(value));
-                } catch (ClassCastException exception) {
-                    result.put(entry.getKey(), (T)String.valueOf(entry.getValue()));
-                }
-            } else if (entry.getValue() instanceof Map) {
-                final var value = (Map)entry.getValue();
-                if (!value.isEmpty())
-                    result.put(entry.getKey() + "-exists", (T)"exists");
-                try {result.put(entry.getKey(), (T)Template.indicateEmpty(value));
-                } catch (ClassCastException exception) {
-                    result.put(entry.getKey(), (T)String.valueOf(entry.getValue()));
-                }
-            } else {
-                final var value = String.valueOf(entry.getValue());
-                if (!value.trim().isEmpty())
-                    result.put(entry.getKey() + "-exists", (T)"exists");
-                result.put(entry.getKey(), (T)value);
-            }
-        });
-        return result;
-    }    
-    
     /**
      * Resolves meta directives #include in markup recursively.
      * @param  path
@@ -602,13 +1354,80 @@ public abstract class Template extends Service.Template {
         recursions.add(include);
         if (Objects.isNull(this.getResource(include)))
             throw new TemplateResourceNotFoundException(include);
-        final var markup = new String(this.getResourceStream(include).readAllBytes());
+        final var markup = new String(this.getResourceStream(include).readAllBytes(), StandardCharsets.UTF_8);
         try {return this.resolveIncludes(Service.Template.normalizePath(include + "/.."), markup, recursions);
         } catch (TemplateRecursionException exception) {
             throw new TemplateException("Recursion found in: " + this.getResource(include));
         }
     }    
 
+    /**
+     * Returns the minimum size of collections in the data, from which the
+     * entries are expanded in parallel when generating the markup. The
+     * default value 0 disables the parallel expansion. Templates with large
+     * lists (e.g. thousands of lines) can enable it by overwriting the
+     * method, so that all CPU cores are used for the generation.
+     * @return minimum size of collections for parallel expansion
+     */
+    protected int getParallelThreshold() {
+        return 0;
+    }
+
+    /**
+     * Returns whether structures that are filled repeatedly with the same data
+     * (e.g. the same map several times in the data) are filled only once per
+     * generation and then reused. This pays off for data with many repeated
+     * sub-maps and is disabled by default. The benefit can be evaluated with
+     * {@link #getMemoHits()} and {@link #getMemoMisses()}.
+     * @return {@code true} if repeated structures are memoized
+     */
+    protected boolean isMemoization() {
+        return false;
+    }
+
+    /**
+     * Returns the number of structures that were taken over from the memo
+     * for all generations of the template instance.
+     * @return number of structures taken over from the memo
+     */
+    protected long getMemoHits() {
+        return this.memoHits.sum();
+    }
+
+    /**
+     * Returns the number of structures that had to be filled with enabled
+     * memoization for all generations of the template instance.
+     * @return number of structures filled with the memo
+     */
+    protected long getMemoMisses() {
+        return this.memoMisses.sum();
+    }
+
+    /**
+     * Analyzes the markup of the template statically and determines the paths
+     * of all placeholders, the structures and the static texts that are used
+     * in content, header and footer. The analysis can be used to validate
+     * data in advance and to reduce it to what the template uses
+     * ({@link Analysis#prune(Meta)}). Rendering itself only prepares the data
+     * and static texts used, comparable to the reduction.
+     * @return the analysis of the template
+     * @throws Exception
+     *     In case of unexpected errors.
+     */
+    public Analysis analyze()
+            throws Exception {
+        final var multiplex = this.demux(this.getLayout());
+        return Analysis.merge(
+                Analysis.analyze(multiplex.getContent()),
+                Analysis.analyze(multiplex.getHeader()),
+                Analysis.analyze(multiplex.getFooter()));
+    }
+
+    @Override
+    protected boolean isPageDependent(final String markup) {
+        return PATTERN_PAGE_PLACEHOLDER.matcher(markup).find();
+    }
+
     @Override
     protected String generate(String markup, Type type, Meta meta) {
         
@@ -619,31 +1438,37 @@ public abstract class Template extends Service.Template {
         // - Placeholders cannot be inserted subsequently
         // - Placeholders without value are removed at the end
 
-        final var statics = meta.getStatics();
-        final var pattern = Pattern.compile("!\\[\\s*(.*?)\\s*\\]");
-        final var matcher = pattern.matcher(markup);
-        while (matcher.find()) {
-            String value = null;
-            if (matcher.group(0).matches("^(?i)!\\[[a-z]([\\w-]*\\w)?\\]$"))
-                value = statics.get(matcher.group(1).toLowerCase());
-            if (Objects.isNull(value))
-                value = "";
-            value = value.replaceAll("#(?=\\[)", "#[0x23]");
-            markup = markup.replace(matcher.group(0), value);
-        }
+        // The static texts are bound in one pass and the compiled model is
+        // shared, the generator only contains the state of the filling and is
+        // therefore created for each call.
+        final var model = Binding.of(markup).bind(meta.getStatics());
 
-        final var generator = Generator.parse(markup.getBytes());
+        final var memo = this.isMemoization() ? new Generator.Memo() : null;
+        final var generator = Generator.create(model, this.getParallelThreshold(), memo);
         generator.set(meta.getData());
         generator.set(new HashMap<>() {
             private static final long serialVersionUID = 1L; {
             if (Objects.nonNull(meta.getLocale()))
                 put("locale", meta.getLocale().getLanguage());
         }});
-        
-        return new String(generator.extract());
+
+
+        // The filled model is finalized directly into the output, without
+        // further intermediate copies of the generator.
+        final var output = new ByteArrayOutputStream();
+        try {generator.write(output);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        if (Objects.nonNull(memo)) {
+            this.memoHits.add(memo.getHits());
+            this.memoMisses.add(memo.getMisses());
+        }
+        return output.toString(StandardCharsets.UTF_8);
     }
 
     @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
     protected byte[] render(Meta meta)
             throws Exception {
         
@@ -654,21 +1479,20 @@ public abstract class Template extends Service.Template {
         // The rendering is done in three steps (content, header, footer) and so
         // this can be done once for all steps.
 
-        var data = meta.getData();
-        data = Template.escapeHtml(data);
-        data = Template.indicateEmpty(data);
+        // The data is escaped and extended by the exists-keys lazily, only
+        // for the keys that are used by the template.
+        final var data = new View(meta.getData(), new IdentityHashMap<>());
 
-        var statics = meta.getStatics();
-        if (Objects.isNull(statics))
-            statics = new HashMap<>();
-        statics = statics.entrySet().stream()
-                .filter(entry -> Objects.nonNull(entry.getValue()))
-                .collect(Collectors.toMap(
-                        (entry) -> entry.getKey().toLowerCase(),
-                        (entry) -> Template.escapeHtml(entry.getValue(),
-                                PATTERN_MARKUP_DETECTION.matcher(entry.getValue()).find()),  
-                        (existing, value) -> value));
-        statics = Template.indicateEmpty(statics);
+        // Static texts are prepared in the same way, only those used by the
+        // template. The static texts registered and already prepared for the
+        // locale are used directly, if the meta-object does not contain any,
+        // otherwise the static texts of the meta-object override them per key.
+        Map statics = Statics.lookup(meta.getLocale());
+        if (Objects.isNull(statics)
+                || (Objects.nonNull(meta.getStatics()) && !meta.getStatics().isEmpty())) {
+            final var view = new View(meta.getStatics(), null, Template::escapeStatics);
+            statics = Objects.isNull(statics) ? view : new Statics.Overlay(view, statics);
+        }
 
         return super.render(new Meta(meta.getLocale(), data, statics));
     }
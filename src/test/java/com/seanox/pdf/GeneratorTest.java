@@ -20,8 +20,14 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 
 class GeneratorTest {
 
@@ -296,6 +302,110 @@ class GeneratorTest {
         Assertions.assertEquals("[a]", scopes);
     }
 
+    @Test
+    void testAcceptance_L() {
+        final var template = new StringBuilder();
+        for (var loop = 0; loop < 500; loop++)
+            template.append("#[s").append(loop).append("[[").append(loop).append(":");
+        for (var loop = 0; loop < 500; loop++)
+            template.append("]]]");
+        final var generator = Generator.parse(template.toString().getBytes());
+        Assertions.assertEquals("", new String(generator.extract()));
+        Assertions.assertEquals("0:", new String(generator.extract("s0")));
+        Assertions.assertEquals("499:", new String(generator.extract("s499")));
+        Assertions.assertEquals(500, Collections.list(generator.scopes()).size());
+    }
+
+    @Test
+    void testAcceptance_M() {
+        final var generator = Generator.parse(("#[a]#[b]|#[0x41]#[c]|#[x{{#[#]}}]#[d]").getBytes());
+        final var values = new Hashtable<String, Object>();
+        values.put("b", "B");
+        values.put("c", "C");
+        values.put("d", "D");
+        generator.set(values);
+        Assertions.assertEquals("B|AC|D", new String(generator.extract()));
+        Assertions.assertEquals("", new String(generator.extract("x")));
+        Assertions.assertEquals("", new String(generator.extract("unknown")));
+    }
+
+    @Test
+    void testAcceptance_N() {
+        final var generator = Generator.parse(("#[a]|#[x[[#[b]#[y[[#[c]]]]]]]").getBytes());
+        final var inner = new HashMap<String, Object>();
+        inner.put(" C", "C");
+        final var values = new HashMap<String, Object>();
+        values.put("b", "B");
+        values.put("Y ", inner);
+        final var unchanged = new HashMap<>(values);
+        generator.set("x", values);
+        Assertions.assertEquals(unchanged, values);
+        Assertions.assertEquals(1, inner.size());
+        values.clear();
+        values.put("a", "A");
+        generator.set(values);
+        Assertions.assertEquals("A|BC", new String(generator.extract()));
+    }
+
+    @Test
+    void testAcceptance_O()
+            throws Exception {
+        final var generator = Generator.parse(("#[a]|#[x[[#[b]|#[y[[#[c]]]]]]]|#[0x41]").getBytes());
+        final var values = new HashMap<String, Object>();
+        values.put("b", "B");
+        values.put("y", List.of(Map.of("c", "1"), Map.of("c", "2")));
+        generator.set("x", values);
+        generator.set(Map.of("a", "A"));
+        final var output = new ByteArrayOutputStream();
+        generator.write(output);
+        Assertions.assertEquals("A|B|12|A", output.toString());
+        Assertions.assertArrayEquals(output.toByteArray(), generator.extract());
+    }
+
+    @Test
+    void testAcceptance_P() {
+        final List<Object> rows = List.of(Map.of("a", "1"), Map.of("a", "2"), "3");
+        final Iterable<Object> iterable = rows::iterator;
+        final var model = Generator.compile(("#[x[[#[a]]]]").getBytes());
+        for (final var value : List.of(rows, iterable, rows.iterator(), rows.stream())) {
+            final var generator = Generator.create(model);
+            generator.set(Map.of("x", value));
+            Assertions.assertEquals("123", new String(generator.extract()));
+        }
+    }
+
+    @Test
+    void testAcceptance_Q() {
+        final var model = Generator.compile(("#[x[[#[a]#[y[[#[b]]]]|]]]").getBytes());
+        final var rows = new ArrayList<Object>();
+        for (var loop = 0; loop < 1000; loop++)
+            rows.add(Map.of("a", String.valueOf(loop), "y", List.of(Map.of("b", "b"), Map.of("b", "B"))));
+        rows.add("-");
+        final var expected = Generator.create(model);
+        expected.set(Map.of("x", rows));
+        final var generator = Generator.create(model, 10);
+        generator.set(Map.of("x", rows));
+        Assertions.assertArrayEquals(expected.extract(), generator.extract());
+    }
+
+    @Test
+    void testAcceptance_R() {
+        final var model = Generator.compile(("#[x[[#[a]#[y[[#[b]#[x]]]]|]]]#[y]").getBytes());
+        final var y = Map.of("b", "B");
+        final var rows = new ArrayList<Object>();
+        for (var loop = 0; loop < 100; loop++)
+            rows.add(Map.of("a", String.valueOf(loop % 2), "y", y));
+        final var values = Map.of("x", rows, "y", y);
+        final var expected = Generator.create(model);
+        expected.set(values);
+        final var memo = new Generator.Memo();
+        final var generator = Generator.create(model, 0, memo);
+        generator.set(values);
+        Assertions.assertArrayEquals(expected.extract(), generator.extract());
+        Assertions.assertEquals(99, memo.getHits());
+        Assertions.assertEquals(102, memo.getMisses());
+    }
+
     @Test
     void testRecursion_1()
             throws Exception {
@@ -500,6 +610,28 @@ class GeneratorTest {
         Assertions.assertTrue(timeTotal < 5000, "Expected less than 5000 but was: " + timeTotal);
     }
 
+    @Test
+    void testConcurrency_1()
+            throws Exception {
+        final var model = Generator.compile(TestDataReader.readTestContent("testAcceptance_I_1.txt").getBytes());
+        final var values = TestDataReader.readTestDataMap("testAcceptance_I.json");
+        final var expected = TestDataReader.readTestContent("testAcceptance_I_2.txt");
+        final var executor = Executors.newFixedThreadPool(8);
+        try {
+            final var tasks = new ArrayList<Callable<String>>();
+            for (var loop = 0; loop < 64; loop++)
+                tasks.add(() -> {
+                    final var generator = Generator.create(model);
+                    generator.set(values);
+                    return new String(generator.extract());
+                });
+            for (final var result : executor.invokeAll(tasks))
+                Assertions.assertEquals(expected, result.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void testNullable_1() {
         final var generator = Generator.parse(null);
@@ -16,8 +16,27 @@
  */
 package com.seanox.pdf;
 
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.text.PDFTextStripper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServiceTest {
 
@@ -46,4 +65,316 @@ public class ServiceTest {
             Assertions.assertEquals(lines[loop + 1], normalizePath(lines[loop]));
         }
     }
-}
\ No newline at end of file
+
+    private static File createPreview(final Service.Template.Layout layout, final File directory)
+            throws Exception {
+        final var template = new Template() {
+            protected String getBasePath() {
+                return "/pdf";
+            }
+            protected String getSourcePath() {
+                return "/pdf/report.html";
+            }
+            protected Layout getLayout() {
+                return layout;
+            }
+        };
+        final var file = new File(directory, layout.name().toLowerCase() + ".pdf");
+        Files.write(file.toPath(), template.getPreview());
+        return file;
+    }
+
+    private static File createPreview(final boolean pageDependent, final File directory)
+            throws Exception {
+        final var template = new Template() {
+            protected String getBasePath() {
+                return "/pdf";
+            }
+            protected String getSourcePath() {
+                return "/pdf/report.html";
+            }
+            protected String getMarkup()
+                    throws Exception {
+                return super.getMarkup().replaceAll("#\\[pages?\\]", "0");
+            }
+            protected boolean isPageDependent(final String markup) {
+                return pageDependent || super.isPageDependent(markup);
+            }
+        };
+        final var file = new File(directory, pageDependent + ".pdf");
+        Files.write(file.toPath(), template.getPreview());
+        return file;
+    }
+
+    private static File createPreview(final Executor executor, final File directory)
+            throws Exception {
+        final var template = new Template() {
+            protected String getBasePath() {
+                return "/pdf";
+            }
+            protected String getSourcePath() {
+                return "/pdf/report.html";
+            }
+            protected Executor getExecutor() {
+                return executor;
+            }
+        };
+        final var file = new File(directory, (Objects.nonNull(executor) ? "parallel" : "serial") + ".pdf");
+        Files.write(file.toPath(), template.getPreview());
+        return file;
+    }
+
+    @Test
+    void testLayout_1(@TempDir final File directory)
+            throws Exception {
+        final var page = ServiceTest.createPreview(Service.Template.Layout.PAGE, directory);
+        final var document = ServiceTest.createPreview(Service.Template.Layout.DOCUMENT, directory);
+        Assertions.assertNull(Compare.compare(page, document));
+    }
+
+    @Test
+    void testLayout_2(@TempDir final File directory)
+            throws Exception {
+        final var dependent = ServiceTest.createPreview(true, directory);
+        final var independent = ServiceTest.createPreview(false, directory);
+        Assertions.assertNull(Compare.compare(dependent, independent));
+        try (final var document = Loader.loadPDF(independent)) {
+            Assertions.assertTrue(document.getNumberOfPages() > 1);
+            for (final var page : document.getPages())
+                for (final var name : page.getResources().getXObjectNames())
+                    Assertions.assertNotNull(page.getResources().getXObject(name));
+        }
+    }
+
+    @Test
+    void testLayout_3()
+            throws Exception {
+        final var template = new Template() {
+            protected String getBasePath() {
+                return "/pdf";
+            }
+            protected String getSourcePath() {
+                return "/pdf/report.html";
+            }
+            protected String getMarkup() {
+                return "<html><head><style>@page {margin:30mm 20mm;}</style></head><body>"
+                        + "<header>Header #[page] of #[pages]</header>"
+                        + "<div style=\"height:500mm\"></div>"
+                        + "<footer>Footer #[page] of #[pages]</footer>"
+                        + "</body></html>";
+            }
+            protected Layout getLayout() {
+                return Layout.RUNNING;
+            }
+        };
+        try (final var document = Loader.loadPDF(template.getPreview())) {
+            Assertions.assertEquals(3, document.getNumberOfPages());
+            final var stripper = new PDFTextStripper();
+            stripper.setSortByPosition(true);
+            for (var page = 1; page <= document.getNumberOfPages(); page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                final var text = stripper.getText(document);
+                Assertions.assertTrue(text.contains("Header " + page + " of 3"));
+                Assertions.assertTrue(text.contains("Footer " + page + " of 3"));
+            }
+        }
+    }
+
+    @Test
+    void testLayout_4()
+            throws Exception {
+        final var template = new Template() {
+            protected String getBasePath() {
+                return "/pdf";
+            }
+            protected String getSourcePath() {
+                return "/pdf/report.html";
+            }
+            protected String getMarkup() {
+                return "<html><head><style>@page {margin:30mm 20mm;}</style></head><body>"
+                        + "<header>Header&nbsp;&auml; ![title]</header>"
+                        + "<div>Content&nbsp;&ouml;</div>"
+                        + "<footer>Footer&nbsp;&uuml; #[page]</footer>"
+                        + "</body></html>";
+            }
+        };
+        try (final var document = Loader.loadPDF(template.render(new Service.Meta(Map.of(), Map.of("title", "<b>&Auml;</b>"))))) {
+            final var text = new PDFTextStripper().getText(document);
+            Assertions.assertTrue(text.contains("Header\u00a0\u00e4 \u00c4"));
+            Assertions.assertTrue(text.contains("Content\u00a0\u00f6"));
+            Assertions.assertTrue(text.contains("Footer\u00a0\u00fc 1"));
+        }
+    }
+
+    @Test
+    void testOverlay_1(@TempDir final File directory)
+            throws Exception {
+        final var independent = ServiceTest.createPreview(false, directory);
+        try (final var document = Loader.loadPDF(independent)) {
+            Set<COSBase> forms = null;
+            for (final var page : document.getPages()) {
+                final var resources = page.getResources();
+                final var objects = new HashSet<COSBase>();
+                for (final var name : resources.getXObjectNames())
+                    objects.add(resources.getXObject(name).getCOSObject());
+                if (Objects.nonNull(forms))
+                    forms.retainAll(objects);
+                else forms = objects;
+            }
+            Assertions.assertNotNull(forms);
+            Assertions.assertFalse(forms.isEmpty());
+        }
+    }
+
+    @Test
+    void testExecutor_1(@TempDir final File directory)
+            throws Exception {
+        final var executor = Executors.newFixedThreadPool(4);
+        try {
+            final var serial = ServiceTest.createPreview((Executor)null, directory);
+            final var parallel = ServiceTest.createPreview(executor, directory);
+            Assertions.assertNull(Compare.compare(serial, parallel));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testOverlay_2(@TempDir final File directory)
+            throws Exception {
+        final var dependent = ServiceTest.createPreview(true, directory);
+        try (final var document = Loader.loadPDF(dependent)) {
+            Set<COSBase> images = null;
+            for (final var page : document.getPages()) {
+                final var objects = new HashSet<COSBase>();
+                final var resources = page.getResources();
+                for (final var name : resources.getXObjectNames()) {
+                    final var object = resources.getXObject(name);
+                    if (!(object instanceof PDFormXObject))
+                        continue;
+                    final var form = ((PDFormXObject)object).getResources();
+                    for (final var entry : form.getXObjectNames())
+                        if (form.getXObject(entry) instanceof PDImageXObject)
+                            objects.add(form.getXObject(entry).getCOSObject());
+                }
+                if (Objects.nonNull(images))
+                    images.retainAll(objects);
+                else images = objects;
+            }
+            Assertions.assertNotNull(images);
+            Assertions.assertFalse(images.isEmpty());
+        }
+    }
+
+    @Template.Resources(base="/pdf", template="/pdf/report.html")
+    static class CacheTemplate extends Template {
+
+        private static final AtomicInteger markups = new AtomicInteger();
+
+        @Override
+        protected String getMarkup()
+                throws Exception {
+            CacheTemplate.markups.incrementAndGet();
+            return super.getMarkup();
+        }
+    }
+
+    @Template.Resources(base="/pdf", template="/pdf/report.html")
+    static class MetaTemplate extends Template {
+    }
+
+    @Test
+    void testMeta_1()
+            throws Exception {
+        final var outlet = new Object() {
+            @Override
+            public String toString() {
+                return "Outlet";
+            }
+        };
+        final var entries = new HashMap<String, Object>(Map.of("outlet", outlet));
+        final var data = Collections.unmodifiableMap(new HashMap<String, Object>(Map.of("entries", List.of(entries))));
+        final var template = Service.Template.instantiate(MetaTemplate.class);
+        try (final var document = Loader.loadPDF(template.render(new Service.Meta(data)))) {
+            Assertions.assertTrue(document.getNumberOfPages() > 0);
+        }
+        Assertions.assertEquals(Set.of("entries"), data.keySet());
+        Assertions.assertEquals(Set.of("outlet"), entries.keySet());
+        Assertions.assertSame(outlet, entries.get("outlet"));
+    }
+
+    @Test
+    void testCache_1(@TempDir final File directory)
+            throws Exception {
+        final var capacity = Service.Template.Cache.getCapacity();
+        try {
+            Service.Template.Cache.clear();
+            Assertions.assertEquals(0, Service.Template.Cache.size());
+            final var markups = CacheTemplate.markups.get();
+            final var master = new File(directory, "master.pdf");
+            Files.write(master.toPath(), Service.Template.instantiate(CacheTemplate.class).getPreview());
+            Assertions.assertEquals(markups + 1, CacheTemplate.markups.get());
+            Assertions.assertEquals(1, Service.Template.Cache.size());
+            final var compare = new File(directory, "compare.pdf");
+            Files.write(compare.toPath(), Service.Template.instantiate(CacheTemplate.class).getPreview());
+            Assertions.assertEquals(markups + 1, CacheTemplate.markups.get());
+            Assertions.assertEquals(1, Service.Template.Cache.size());
+            Assertions.assertNull(Compare.compare(master, compare));
+            Service.Template.Cache.invalidate(CacheTemplate.class);
+            Assertions.assertEquals(0, Service.Template.Cache.size());
+            Service.Template.Cache.setCapacity(0);
+            Service.Template.instantiate(CacheTemplate.class).getPreview();
+            Assertions.assertEquals(markups + 2, CacheTemplate.markups.get());
+            Assertions.assertEquals(0, Service.Template.Cache.size());
+            Assertions.assertThrows(IllegalArgumentException.class, () -> Service.Template.Cache.setCapacity(-1));
+        } finally {
+            Service.Template.Cache.setCapacity(capacity);
+        }
+    }
+
+    private static String normalizeHtmlEntities(final String text)
+            throws Exception {
+        final var method = Service.Template.class.getDeclaredMethod("normalizeHtmlEntities", String.class);
+        method.setAccessible(true);
+        return (String)method.invoke(null, text);
+    }
+
+    @Test
+    void testNormalizeHtmlEntities_1()
+            throws Exception {
+        final var text = "<p a=\"&quot;\">\u00e4 &amp; &lt; &#228;</p>";
+        Assertions.assertSame(text, ServiceTest.normalizeHtmlEntities(text));
+        Assertions.assertEquals("<p>\u00e4\u00a0&amp; &unknown; & a;</p>", ServiceTest.normalizeHtmlEntities("<p>&auml;&nbsp;&amp; &unknown; & a;</p>"));
+        Assertions.assertEquals("", ServiceTest.normalizeHtmlEntities(null));
+    }
+
+    @Test
+    void testMultiplex_1()
+            throws Exception {
+        final var markup = "<html><head><title>T</title></head><body a=\"1\">"
+                + "<header>H</header>"
+                + "<p>C &amp; \u00e4<br/></p>"
+                + "<footer>F</footer>"
+                + "</body></html>";
+        final var multiplex = Service.Template.Multiplex.demux(markup);
+        Assertions.assertEquals("<html><head><title>T</title></head><body a=\"1\">"
+                + "<p>C &amp; \u00e4<br/></p>"
+                + "</body></html>", multiplex.getContent());
+        Assertions.assertEquals("<html><head><title>T</title>"
+                + "<style type=\"text/css\">@page { margin:0mm!important; padding:0mm!important; border:0mm solid!important;}</style>"
+                + "</head><body a=\"1\"><header>H</header></body></html>", multiplex.getHeader());
+        Assertions.assertEquals("<html><head><title>T</title>"
+                + "<style type=\"text/css\">@page { margin:0mm!important; padding:0mm!important; border:0mm solid!important;}</style>"
+                + "</head><body a=\"1\"><footer>F</footer></body></html>", multiplex.getFooter());
+
+        final var running = Service.Template.Multiplex.demux(markup, Service.Template.Layout.RUNNING);
+        Assertions.assertNull(running.getHeader());
+        Assertions.assertNull(running.getFooter());
+        Assertions.assertTrue(running.getContent().contains("<body a=\"1\"><header>H</header><footer>F</footer><p>"));
+        Assertions.assertTrue(running.getContent().contains("body &gt; header { position:running(header)!important;}"));
+
+        Assertions.assertNull(Service.Template.Multiplex.demux("<html><body><p/></body></html>").getHeader());
+    }
+
+}
@@ -17,11 +17,21 @@
 package com.seanox.pdf;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.seanox.pdf.Service.Meta;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 public class TemplateTest {
 
@@ -73,4 +83,226 @@ public class TemplateTest {
                 this.getPreviewData("testAcceptance_5.properties"));
         Assertions.assertEquals("Invalid key index: $$$[1].$", throwable.getMessage());
     }
-}
\ No newline at end of file
+
+    private static String generate(final Map<String, Object> data)
+            throws Exception {
+        final var output = new StringBuilder();
+        new Template() {
+            protected URI getBase()
+                    throws Exception {
+                return TemplateTest.class.getResource("/").toURI();
+            }
+            protected String getMarkup() {
+                return "<html><body>#[rows-exists]|#[rows[[#[name]]]]</body></html>";
+            }
+            protected String generate(final String markup, final Type type, final Meta meta) {
+                final var content = super.generate(markup, type, meta);
+                output.append(content);
+                return content;
+            }
+        }.render(new Meta(data));
+        return output.toString();
+    }
+
+    @Test
+    void testMemoization_1()
+            throws Exception {
+        final var output = new StringBuilder();
+        final var outlet = Map.of("name", "A&B");
+        final var template = new Template() {
+            protected URI getBase()
+                    throws Exception {
+                return TemplateTest.class.getResource("/").toURI();
+            }
+            protected String getMarkup() {
+                return "<html><body>#[rows[[#[outlet[[#[name]]]]]]]</body></html>";
+            }
+            protected boolean isMemoization() {
+                return true;
+            }
+            protected String generate(final String markup, final Type type, final Meta meta) {
+                final var content = super.generate(markup, type, meta);
+                output.append(content);
+                return content;
+            }
+        };
+        template.render(new Meta(Map.of("rows", Collections.nCopies(3, Map.of("outlet", outlet)))));
+        Assertions.assertEquals("<html><body>A&amp;BA&amp;BA&amp;B</body></html>", output.toString());
+        Assertions.assertEquals(2, template.getMemoHits());
+        Assertions.assertEquals(2, template.getMemoMisses());
+    }
+
+    @Test
+    void testLazy_1()
+            throws Exception {
+        final List<Map<String, String>> rows = List.of(Map.of("name", "A&"), Map.of(), Map.of("NAME", "B"));
+        final Iterable<Map<String, String>> iterable = rows::iterator;
+        final var expected = "<html><body>exists|A&amp;B</body></html>";
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", rows)));
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", iterable)));
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", rows.iterator())));
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", rows.stream())));
+    }
+
+    @Test
+    void testLazy_2()
+            throws Exception {
+        final var expected = "<html><body>|</body></html>";
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", List.of())));
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", Collections.emptyIterator())));
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", Stream.empty())));
+    }
+
+    @Test
+    void testLazy_3()
+            throws Exception {
+        final var rows = List.of(Map.of("name", "A"), Map.of("name", "B"));
+        final var iterations = new AtomicInteger();
+        final Iterable<Map<String, String>> iterable = () -> {
+            iterations.incrementAndGet();
+            return rows.iterator();
+        };
+        Assertions.assertEquals("<html><body>exists|AB</body></html>", TemplateTest.generate(Map.of("rows", iterable)));
+        Assertions.assertEquals(1, iterations.get());
+    }
+
+    @Test
+    void testLazy_4()
+            throws Exception {
+        final var rows = Arrays.asList(Map.of("name", "A"), "x<", null, Map.of(), Map.of("name", "B"));
+        final Iterable<Object> iterable = rows::iterator;
+        final var expected = "<html><body>exists|Ax&lt;B</body></html>";
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", rows)));
+        Assertions.assertEquals(expected, TemplateTest.generate(Map.of("rows", iterable)));
+    }
+
+    @Test
+    void testView_1()
+            throws Exception {
+        final var used = new AtomicInteger();
+        final var unused = new AtomicInteger();
+        final var data = new HashMap<String, Object>();
+        data.put("ROWS", List.of(Map.of("Name", new Object() {
+            @Override
+            public String toString() {
+                used.incrementAndGet();
+                return "<x>";
+            }
+        })));
+        data.put("unused", new Object() {
+            @Override
+            public String toString() {
+                unused.incrementAndGet();
+                return "unused";
+            }
+        });
+        Assertions.assertEquals("<html><body>exists|&lt;x&gt;</body></html>", TemplateTest.generate(data));
+        Assertions.assertEquals(1, used.get());
+        Assertions.assertEquals(0, unused.get());
+        Assertions.assertEquals(2, data.size());
+    }
+
+    @Test
+    void testAnalysis_1()
+            throws Exception {
+        final var template = new Template() {
+            protected URI getBase()
+                    throws Exception {
+                return TemplateTest.class.getResource("/").toURI();
+            }
+            protected String getMarkup() {
+                return "<html><body>![Title]|#[Name]|#[rows-exists]|#[rows[[#[name]|#[outlet[[#[id]|#[rows]]]]]]]</body></html>";
+            }
+        };
+        final var analysis = template.analyze();
+        Assertions.assertEquals(Set.of("name", "rows", "rows-exists", "rows.name", "rows.outlet", "rows.outlet.id", "rows.outlet.rows"), analysis.getPaths());
+        Assertions.assertEquals(Set.of("rows", "rows.outlet"), analysis.getScopes());
+        Assertions.assertEquals(Set.of("title"), analysis.getStatics());
+
+        final var data = Map.<String, Object>of("NAME", "A", "rows", List.of(), "unused", "B");
+        final var statics = Map.of("title", "C", "unused", "D");
+        final var meta = analysis.prune(new Meta(data, statics));
+        Assertions.assertEquals(Set.of("NAME", "rows"), meta.getData().keySet());
+        Assertions.assertEquals(Set.of("title"), meta.getStatics().keySet());
+        Assertions.assertEquals(3, data.size());
+    }
+
+    @Test
+    void testStatics_1()
+            throws Exception {
+        final var output = new StringBuilder();
+        final var template = new Template() {
+            protected URI getBase()
+                    throws Exception {
+                return TemplateTest.class.getResource("/").toURI();
+            }
+            protected String getMarkup() {
+                return "<html><body>![n]|![a]|![ A ]|![B]|![c]|![1x]|![a]</body></html>";
+            }
+            protected String generate(final String markup, final Type type, final Meta meta) {
+                final var content = super.generate(markup, type, meta);
+                output.append(content);
+                return content;
+            }
+        };
+        final var statics = Map.of("A", "x#[y]&", "b", "<b>bold</b>", "n", "n:![B]");
+        template.render(new Meta(Map.of(), statics));
+        template.render(new Meta(Map.of(), statics));
+        final var expected = "<html><body>n:<b>bold</b>|x#[y]&amp;||<b>bold</b>|||x#[y]&amp;</body></html>";
+        Assertions.assertEquals(expected + expected, output.toString());
+    }
+
+    @Test
+    void testStatics_2()
+            throws Exception {
+        final var output = new StringBuilder();
+        final var template = new Template() {
+            protected URI getBase()
+                    throws Exception {
+                return TemplateTest.class.getResource("/").toURI();
+            }
+            protected String getMarkup() {
+                return "<html><body>![a]|![a-exists]|![b]</body></html>";
+            }
+            protected String generate(final String markup, final Type type, final Meta meta) {
+                final var content = super.generate(markup, type, meta);
+                output.append(content);
+                return content;
+            }
+        };
+        final var properties = new Properties();
+        properties.setProperty("A", "\u00c4<");
+        try {
+            com.seanox.pdf.Template.Statics.register(Locale.GERMAN, properties);
+            com.seanox.pdf.Template.Statics.register(null, Map.of("b", "<b>root</b>"));
+            template.render(new Meta(Locale.GERMANY, Map.of()));
+            Assertions.assertEquals("<html><body>\u00c4&lt;|exists|</body></html>", output.toString());
+            output.setLength(0);
+            template.render(new Meta(Locale.FRENCH, Map.of()));
+            Assertions.assertEquals("<html><body>||<b>root</b></body></html>", output.toString());
+            output.setLength(0);
+            template.render(new Meta(Locale.GERMAN, Map.of(), Map.of("a", "x")));
+            Assertions.assertEquals("<html><body>x|exists|</body></html>", output.toString());
+            output.setLength(0);
+            template.render(new Meta(Locale.GERMAN, Map.of(), Map.of("b", "y")));
+            Assertions.assertEquals("<html><body>\u00c4&lt;|exists|y</body></html>", output.toString());
+            output.setLength(0);
+            template.render(new Meta(Locale.GERMAN, Map.of(), Map.of("a", "")));
+            Assertions.assertEquals("<html><body>||</body></html>", output.toString());
+            output.setLength(0);
+            com.seanox.pdf.Template.Statics.unregister(Locale.GERMAN);
+            template.render(new Meta(Locale.GERMAN, Map.of()));
+            Assertions.assertEquals("<html><body>||<b>root</b></body></html>", output.toString());
+        } finally {
+            com.seanox.pdf.Template.Statics.clear();
+        }
+    }
+
+    @Test
+    void testEscapeHtml_1() {
+        Assertions.assertEquals("", com.seanox.pdf.Template.escapeHtml(null));
+        Assertions.assertEquals("Gr\u00fc\u00dfe \u65e5\u672c", com.seanox.pdf.Template.escapeHtml("Gr\u00fc\u00dfe \u65e5\u672c"));
+        Assertions.assertEquals("&lt;a&gt; &amp; \u00e4<br/>b<br/><br/>c<br/>", com.seanox.pdf.Template.escapeHtml("<a> & \u00e4\r\nb\n\n\rc\r"));
+        Assertions.assertEquals("<b>\u00e4 &amp; &auml; &#228;</b>", com.seanox.pdf.Template.escapeHtml("<b>\u00e4 & &auml; &#228;</b>", true));
+    }
+}
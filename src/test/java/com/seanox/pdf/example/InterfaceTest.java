@@ -19,6 +19,7 @@ package com.seanox.pdf.example;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import com.seanox.pdf.Service.Meta;
 import com.seanox.pdf.Service.Template;
@@ -45,6 +46,21 @@ class InterfaceTest extends Template {
     protected String getSourcePath() {
         return super.getSourcePath();
     }        
+
+    @Override
+    protected Layout getLayout() {
+        return super.getLayout();
+    }
+
+    @Override
+    protected boolean isPageDependent(final String markup) {
+        return super.isPageDependent(markup);
+    }
+
+    @Override
+    protected Executor getExecutor() {
+        return super.getExecutor();
+    }
     
     @Override
     protected URI getSource()
@@ -110,6 +126,7 @@ class InterfaceTest extends Template {
         Template.merge(null);
 
         final var multiplex = Multiplex.demux(null);
+        Multiplex.demux(null, Layout.RUNNING);
         multiplex.getHeader();
         multiplex.getContent();
         multiplex.getFooter();
@@ -117,6 +134,12 @@ class InterfaceTest extends Template {
         final var resources = InterfaceTest.class.getAnnotation(Resources.class);
         resources.base();
         resources.template();
+        resources.layout();
+
+        Cache.setCapacity(Cache.getCapacity());
+        Cache.size();
+        Cache.invalidate(InterfaceTest.class);
+        Cache.clear();
     }
      
     @Override